@@ -0,0 +1,153 @@
+package com.xing.beetle.amqp;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.Consumer;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of passing a delivery from the broker through the consumer decorators to the
+ * application and acknowledging it. The broker is a stub accepting every call, so only the
+ * decorators are measured: the BeetleChannel alone ("channel") or the stack the connection factory
+ * builds per broker, RequeueAtEndConnection and MultiPlexingConnection below the BeetleChannel
+ * ("stack").
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeliveryPipelineBenchmark {
+
+  private static final String CONSUMER_TAG = "benchmark";
+  private static final AMQP.BasicProperties PROPERTIES =
+      new AMQP.BasicProperties.Builder().messageId("id").build();
+  private static final byte[] BODY = new byte[128];
+
+  /** Broker answers all calls with defaults and keeps the consumer registered last. */
+  private static class Broker implements InvocationHandler {
+
+    private Connection connection;
+    private Consumer consumer;
+
+    Connection connect() {
+      connection = proxy(Connection.class);
+      return connection;
+    }
+
+    private <T> T proxy(Class<T> type) {
+      return type.cast(
+          Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {type}, this));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+      switch (method.getName()) {
+        case "createChannel":
+          return proxy(Channel.class);
+        case "basicConsume":
+          consumer = (Consumer) args[args.length - 1];
+          return args.length > 2 && args[2] instanceof String ? args[2] : CONSUMER_TAG;
+        case "getConnection":
+          return connection;
+        case "getAddress":
+          return InetAddress.getLoopbackAddress();
+        case "isOpen":
+          return true;
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "toString":
+          return "broker";
+        default:
+          return defaultValue(method.getReturnType());
+      }
+    }
+
+    private static Object defaultValue(Class<?> type) {
+      if (type == boolean.class) {
+        return false;
+      } else if (type == int.class) {
+        return 0;
+      } else if (type == long.class) {
+        return 0L;
+      } else if (type == double.class) {
+        return 0.0;
+      } else {
+        return null;
+      }
+    }
+  }
+
+  @Param({"channel", "stack"})
+  private String layers;
+
+  private Channel channel;
+  private Consumer broker;
+  private long brokerTag;
+  private long deliveredTag;
+
+  @Setup
+  public void setUp() throws IOException {
+    BeetleAmqpConfiguration configuration = new BeetleAmqpConfiguration();
+    Broker stub = new Broker();
+    Connection connection = stub.connect();
+    if ("stack".equals(layers)) {
+      connection =
+          new MultiPlexingConnection(
+              new RequeueAtEndConnection(connection, configuration, false),
+              configuration.getMaxConsumersPerChannel());
+    }
+    channel =
+        new BeetleConnection(Collections.singletonList(connection), configuration).createChannel();
+    channel.basicConsume(
+        "queue",
+        false,
+        CONSUMER_TAG,
+        new DefaultConsumer(channel) {
+          @Override
+          public void handleDelivery(
+              String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) {
+            deliveredTag = envelope.getDeliveryTag();
+          }
+        });
+    broker = stub.consumer;
+  }
+
+  @TearDown
+  public void tearDown() throws IOException, TimeoutException {
+    channel.close();
+  }
+
+  @Benchmark
+  public long deliverAndAck() throws IOException {
+    broker.handleDelivery(
+        CONSUMER_TAG, new Envelope(++brokerTag, false, "", "queue"), PROPERTIES, BODY);
+    channel.basicAck(deliveredTag, false);
+    return deliveredTag;
+  }
+}
@@ -0,0 +1,219 @@
+package com.xing.beetle.amqp;
+
+import static java.util.Objects.requireNonNull;
+
+import com.rabbitmq.client.Channel;
+import com.xing.beetle.util.ExceptionSupport;
+import com.xing.beetle.util.ThreadPerTaskExecutor;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * AdaptiveQos tunes the prefetch count of each broker channel to the pace of the handlers. It
+ * measures the time from delivery to acknowledgement and the acknowledgement rate per channel and,
+ * following Little's law, sets the prefetch count to the number of messages the handlers complete
+ * within the target in-flight time, bounded by the configured minimum and maximum. Fast handlers
+ * thereby get enough messages buffered to stay busy, slow ones don't hoard messages other consumers
+ * could handle.
+ */
+class AdaptiveQos {
+
+  private static final Logger log = LoggerFactory.getLogger(AdaptiveQos.class);
+
+  // how often the prefetch count is reconsidered at most
+  static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private static class Delivery {
+
+    private final Controller controller;
+    private final long deliveredAt;
+
+    Delivery(Controller controller, long deliveredAt) {
+      this.controller = controller;
+      this.deliveredAt = deliveredAt;
+    }
+  }
+
+  /** Controller keeps the measurements and the prefetch count of one broker channel. */
+  private class Controller {
+
+    private final Channel channel;
+    private int prefetchCount;
+    private long windowStart;
+    private long completions;
+    private long latencyNanos;
+    // the prefetch count still to be applied (0 if none) and whether a task applies it
+    private int unapplied;
+    private boolean applying;
+
+    Controller(Channel channel, long now) {
+      this.channel = channel;
+      this.prefetchCount = initialPrefetchCount;
+      this.windowStart = now;
+    }
+
+    /**
+     * @param count number of completed deliveries
+     * @param latencies summed up delivery to completion times of them
+     * @return the new prefetch count or 0 if it should be kept
+     */
+    synchronized int completed(long count, long latencies, long now) {
+      completions += count;
+      latencyNanos += latencies;
+      long elapsed = now - windowStart;
+      if (elapsed < WINDOW_NANOS) {
+        return 0;
+      }
+      double rate = (double) completions / elapsed;
+      long latency = latencyNanos / completions;
+      windowStart = now;
+      completions = 0;
+      latencyNanos = 0;
+
+      // grow at most twice per window, the rate is capped by the current prefetch count
+      long wanted = Math.min((long) Math.ceil(rate * targetNanos), 2L * prefetchCount);
+      int target = (int) Math.max(minPrefetchCount, Math.min(maxPrefetchCount, wanted));
+      log.debug(
+          "Beetle: {} acks/s with {} ms latency on channel {}, prefetch {} -> {}",
+          Math.round(rate * TimeUnit.SECONDS.toNanos(1)),
+          TimeUnit.NANOSECONDS.toMillis(latency),
+          channel.getChannelNumber(),
+          prefetchCount,
+          target);
+      // ignore changes below 10% to save the broker round trips
+      if (Math.abs(target - prefetchCount) * 10 < prefetchCount || target == prefetchCount) {
+        return 0;
+      }
+      prefetchCount = target;
+      return target;
+    }
+
+    synchronized void reset(int count) {
+      prefetchCount = count;
+    }
+
+    /** Applies a new prefetch count off the calling thread, replacing one not applied yet. */
+    void apply(int count) {
+      synchronized (this) {
+        unapplied = count;
+        if (applying) {
+          return;
+        }
+        applying = true;
+      }
+      executor.execute(this::applyLatest);
+    }
+
+    private void applyLatest() {
+      while (true) {
+        int count;
+        synchronized (this) {
+          count = unapplied;
+          unapplied = 0;
+          // nothing left or the channel was removed meanwhile
+          if (count == 0 || controllers.get(channel) != this) {
+            applying = false;
+            return;
+          }
+        }
+        ExceptionSupport.Consumer<Channel> retuning = ch -> retune.accept(ch, count);
+        retuning
+            .executeAndCatch(channel)
+            .ifPresent(e -> log.warn("Beetle: failed to change the prefetch count", e));
+      }
+    }
+  }
+
+  private final int minPrefetchCount;
+  private final int maxPrefetchCount;
+  private final double targetNanos;
+  private final ExceptionSupport.BiConsumer<Channel, Integer> retune;
+  private final LongSupplier clock;
+  private final Executor executor;
+  private final Map<Channel, Controller> controllers;
+  private final ConcurrentNavigableMap<Long, Delivery> deliveries;
+  private volatile int initialPrefetchCount;
+
+  /**
+   * @param retune applies a new prefetch count to a broker channel, which waits for the broker and
+   *     therefore runs on a thread of its own rather than the acknowledging one
+   */
+  AdaptiveQos(
+      BeetleAmqpConfiguration configuration, ExceptionSupport.BiConsumer<Channel, Integer> retune) {
+    this(configuration, retune, System::nanoTime, ThreadPerTaskExecutor.get());
+  }
+
+  AdaptiveQos(
+      BeetleAmqpConfiguration configuration,
+      ExceptionSupport.BiConsumer<Channel, Integer> retune,
+      LongSupplier clock,
+      Executor executor) {
+    this.minPrefetchCount = Math.max(1, configuration.getAdaptiveQosMinPrefetch());
+    this.maxPrefetchCount = Math.max(minPrefetchCount, configuration.getAdaptiveQosMaxPrefetch());
+    this.targetNanos = TimeUnit.MILLISECONDS.toNanos(configuration.getAdaptiveQosTargetMs());
+    this.retune = requireNonNull(retune);
+    this.clock = requireNonNull(clock);
+    this.executor = requireNonNull(executor);
+    this.controllers = new ConcurrentHashMap<>();
+    this.deliveries = new ConcurrentSkipListMap<>();
+    this.initialPrefetchCount = maxPrefetchCount;
+  }
+
+  /** Records the delivery of a message on the given broker channel. */
+  void delivered(long deliveryTag, Channel channel) {
+    long now = clock.getAsLong();
+    Controller controller = controllers.computeIfAbsent(channel, ch -> new Controller(ch, now));
+    deliveries.put(deliveryTag, new Delivery(controller, now));
+  }
+
+  /**
+   * Takes over a prefetch count set explicitly, the channels are tuned starting from it.
+   *
+   * @param prefetchCount the prefetch count or 0 for unlimited
+   */
+  void prefetchCount(int prefetchCount) {
+    int count = prefetchCount <= 0 ? maxPrefetchCount : prefetchCount;
+    initialPrefetchCount = Math.max(minPrefetchCount, Math.min(maxPrefetchCount, count));
+    controllers.values().forEach(controller -> controller.reset(initialPrefetchCount));
+  }
+
+  /** Records the acknowledgement (or rejection) of one or multiple (synthetic) delivery tags. */
+  void completed(long deliveryTag, boolean multiple) {
+    Map<Long, Delivery> completed =
+        multiple
+            ? deliveries.headMap(deliveryTag, true)
+            : deliveries.subMap(deliveryTag, deliveryTag + 1);
+    long now = clock.getAsLong();
+    // count and summed up latency of the completed deliveries per controller
+    Map<Controller, long[]> measurements = new HashMap<>();
+    for (Delivery delivery : completed.values()) {
+      long[] measurement = measurements.computeIfAbsent(delivery.controller, c -> new long[2]);
+      measurement[0]++;
+      measurement[1] += now - delivery.deliveredAt;
+    }
+    completed.clear();
+    measurements.forEach(
+        (controller, measurement) -> {
+          int prefetchCount = controller.completed(measurement[0], measurement[1], now);
+          if (prefetchCount > 0) {
+            controller.apply(prefetchCount);
+          }
+        });
+  }
+
+  /** Forgets about a channel which isn't consumed from anymore. */
+  void remove(Channel channel) {
+    Controller controller = controllers.remove(channel);
+    if (controller != null) {
+      deliveries.values().removeIf(delivery -> delivery.controller == controller);
+    }
+  }
+}
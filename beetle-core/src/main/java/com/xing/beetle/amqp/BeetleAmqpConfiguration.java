@@ -34,6 +34,134 @@ public class BeetleAmqpConfiguration {
   @Value("${beetle.additional_subscription_servers:}")
   private String beetleAdditionalSubscriptionServers = "";
 
+  /**
+   * number of brokers a new connection waits for before it can be used. Connections to the
+   * remaining brokers and to the additional subscription servers are established in the background.
+   * A new connection fails if the quorum can't be reached. 0 waits for every broker to be connected
+   * or given up on and never fails, unreachable brokers are skipped (defaults to 0)
+   */
+  @Value("${beetle.connection_quorum:0}")
+  private int connectionQuorum = 0;
+
+  /**
+   * (seconds) how long a broker removed at runtime keeps its connection open after its consumers
+   * were cancelled, so that in-flight deliveries can still be acknowledged (defaults to 30)
+   */
+  @Value("${beetle.broker_drain_seconds:30}")
+  private int brokerDrainSeconds = 30;
+
+  /**
+   * how many consumers of one channel share an AMQP channel on the broker. 1 opens a channel per
+   * consumer (defaults to 1)
+   */
+  @Value("${beetle.max_consumers_per_channel:1}")
+  private int maxConsumersPerChannel = 1;
+
+  /**
+   * opens a second connection to each broker which is used for consumers only, so that publishing
+   * cannot delay deliveries and acknowledgements (defaults to false)
+   */
+  @Value("${beetle.separate_consume_connections:false}")
+  private boolean separateConsumeConnections = false;
+
+  /**
+   * how many connections are opened to each broker. Channels are spread across them by thread
+   * (defaults to 1)
+   */
+  @Value("${beetle.connections_per_broker:1}")
+  private int connectionsPerBroker = 1;
+
+  /** runs all broker connections on shared NIO threads instead of a thread per socket */
+  @Value("${beetle.nio_enabled:false}")
+  private boolean nioEnabled = false;
+
+  /** number of the shared NIO threads, 0 keeps the client default (defaults to 0) */
+  @Value("${beetle.nio_threads:0}")
+  private int nioThreads = 0;
+
+  /**
+   * size of the thread pool all connections share to dispatch deliveries to consumers. 0 gives each
+   * connection its own pool (defaults to 0)
+   */
+  @Value("${beetle.consumer_dispatch_threads:0}")
+  private int consumerDispatchThreads = 0;
+
+  /**
+   * hands each delivery to a thread of its own, a virtual thread on Java 21 and later, instead of
+   * handling it on the consumer thread. Handlers exceeding handler_timeout are cancelled by
+   * interrupting their thread. The deliveries of a channel are handled in parallel, so where the
+   * order of messages matters use handler_lanes instead, whose lanes run on such threads as well.
+   * Not supported with Spring listener containers (defaults to false)
+   */
+  @Value("${beetle.handler_thread_per_message:false}")
+  private boolean handlerThreadPerMessage = false;
+
+  /**
+   * number of serial lanes the deliveries of a consumer are handed over on. Messages are assigned
+   * to a lane by handler_lane_key, so messages with different keys are handled in parallel while
+   * the order of messages with the same key is kept. A multiple acknowledgement doesn't cover
+   * messages still waiting or being handled on other lanes. Not supported with Spring listener
+   * containers, which hand the deliveries over to their own threads (defaults to 1, i.e. all
+   * messages are handled one after another)
+   */
+  @Value("${beetle.handler_lanes:1}")
+  private int handlerLanes = 1;
+
+  /**
+   * what messages are assigned to lanes by: "routing_key", "message_id" or "header:" followed by a
+   * header name, other values are rejected (defaults to message_id)
+   */
+  @Value("${beetle.handler_lane_key:message_id}")
+  private String handlerLaneKey = "message_id";
+
+  /**
+   * tunes the prefetch count of each broker channel to the pace of the handlers: it is set to the
+   * number of messages acknowledged within adaptive_qos_target_ms, bounded by
+   * adaptive_qos_min_prefetch and adaptive_qos_max_prefetch. An explicitly set prefetch count is
+   * used as the starting point and its scope is kept, a per consumer one applies to consumers
+   * started after the change only (defaults to false)
+   */
+  @Value("${beetle.adaptive_qos_enabled:false}")
+  private boolean adaptiveQosEnabled = false;
+
+  @Value("${beetle.adaptive_qos_min_prefetch:1}")
+  private int adaptiveQosMinPrefetch = 1;
+
+  @Value("${beetle.adaptive_qos_max_prefetch:500}")
+  private int adaptiveQosMaxPrefetch = 500;
+
+  /** (milliseconds) how long the messages buffered by a consumer should last (defaults to 1000) */
+  @Value("${beetle.adaptive_qos_target_ms:1000}")
+  private long adaptiveQosTargetMs = 1000;
+
+  /**
+   * (bytes) limits the size of the delivered but not yet acknowledged messages of a connection,
+   * summed up over all brokers. Consumers are paused when it is exceeded and resumed when half of
+   * it is free again. 0 means unlimited (defaults to 0)
+   */
+  @Value("${beetle.max_in_flight_bytes:0}")
+  private long maxInFlightBytes = 0;
+
+  /**
+   * remembers the queues declared on each connection, so that declaring them again (with the same
+   * parameters) does not cost a broker round trip. Exclusive, auto-delete and server named queues
+   * are not cached. A declaration is forgotten when the queue is deleted or one of its consumers is
+   * cancelled, and the cache is cleared on connection recovery. A cached declaration returns the
+   * message and consumer counts of the first one, which are stale, use queueDeclarePassive for the
+   * current counts (defaults to true)
+   */
+  @Value("${beetle.topology_cache_enabled:true}")
+  private boolean topologyCacheEnabled = true;
+
+  /**
+   * comma separated delays in milliseconds, e.g. "1000,10000,60000". For each of them a delay queue
+   * is declared next to every queue, in which messages waiting for a handler retry are parked until
+   * they are due instead of being requeued right away. Empty disables the delay queues (defaults to
+   * empty)
+   */
+  @Value("${beetle.delay_queue_tiers:}")
+  private String delayQueueTiers = "";
+
   /**
    * (seconds )defines how long message tombstones are kept in the deduplication store. This setting
    * helps avoiding duplicate handler executions cause for example by hard application crashes.
@@ -60,6 +188,13 @@ public class BeetleAmqpConfiguration {
   @Value("${beetle.policy_updates_routing_key:beetle.policy.update}")
   private String beetlePolicyUpdatesRoutingKey = "beetle.policy.update";
 
+  /**
+   * how long to wait for the broker to confirm published policy options before publishing them
+   * again with a backoff, e.g. while the broker blocks publishers (defaults to 10 seconds).
+   */
+  @Value("${beetle.policy_publish_timeout:10}")
+  private int policyPublishTimeoutSeconds = 10;
+
   /**
    * how long we should repeatedly retry a redis operation before giving up, with a one second sleep
    * between retries (defaults to 180 seconds). this value needs to be somewhere between the maximum
@@ -118,6 +253,46 @@ public class BeetleAmqpConfiguration {
   @Value("${beetle.handler_execution_attempts_delay:10}")
   private int handlerExecutionAttemptsDelaySeconds = 10; // seconds
 
+  /**
+   * messages which are not redundant and can not be retried (i.e. handler_execution_attempts is 1)
+   * are handled without touching the deduplication store at all. Only their expires_at header is
+   * checked. By default this is turned off and needs to be explicitly enabled.
+   */
+  @Value("${beetle.dedup_store_fast_path_enabled:false}")
+  private boolean dedupStoreFastPathEnabled = false;
+
+  /**
+   * acknowledges messages whose expires_at header has passed as soon as they are delivered, before
+   * they are converted and passed to the listener. Speeds up draining a backlog of stale messages,
+   * e.g. after an outage (defaults to false)
+   */
+  @Value("${beetle.drop_expired_on_delivery:false}")
+  private boolean dropExpiredOnDelivery = false;
+
+  /**
+   * (milliseconds) how long a redundant copy of a message waits for another copy being handled in
+   * the same process, consumed from the same queue, before consulting the deduplication store. The
+   * waiting copy is then dropped as completed instead of being requeued through the broker. 0
+   * disables the wait (defaults to 0)
+   */
+  @Value("${beetle.local_mutex_wait_ms:0}")
+  private long localMutexWaitMs = 0;
+
+  /**
+   * deduplication policy used for listeners without an entry in listener_dedup_policies. One of
+   * "full", "expiry_only", "local_only" or "none" (defaults to "full").
+   */
+  @Value("${beetle.default_dedup_policy:full}")
+  private String defaultDedupPolicy = "full";
+
+  /**
+   * comma separated list of "listener:policy" pairs selecting the deduplication policy per
+   * listener, e.g. "orders:full,clicks:none". The listener is identified by its listener id or by
+   * one of its queue names (defaults to "")
+   */
+  @Value("${beetle.listener_dedup_policies:}")
+  private String listenerDedupPolicies = "";
+
   /** how many exceptions should be tolerated before giving up the handler execution */
   @Value("${beetle.exception_limit:0}")
   private int exceptionLimit = 0;
@@ -162,6 +337,46 @@ public class BeetleAmqpConfiguration {
     return handlerTimeoutSeconds;
   }
 
+  public boolean isDropExpiredOnDelivery() {
+    return dropExpiredOnDelivery;
+  }
+
+  public void setDropExpiredOnDelivery(boolean dropExpiredOnDelivery) {
+    this.dropExpiredOnDelivery = dropExpiredOnDelivery;
+  }
+
+  public long getLocalMutexWaitMs() {
+    return localMutexWaitMs;
+  }
+
+  public void setLocalMutexWaitMs(long localMutexWaitMs) {
+    this.localMutexWaitMs = localMutexWaitMs;
+  }
+
+  public boolean isDedupStoreFastPathEnabled() {
+    return dedupStoreFastPathEnabled;
+  }
+
+  public void setDedupStoreFastPathEnabled(boolean dedupStoreFastPathEnabled) {
+    this.dedupStoreFastPathEnabled = dedupStoreFastPathEnabled;
+  }
+
+  public String getDefaultDedupPolicy() {
+    return defaultDedupPolicy;
+  }
+
+  public void setDefaultDedupPolicy(String defaultDedupPolicy) {
+    this.defaultDedupPolicy = defaultDedupPolicy;
+  }
+
+  public String getListenerDedupPolicies() {
+    return listenerDedupPolicies;
+  }
+
+  public void setListenerDedupPolicies(String listenerDedupPolicies) {
+    this.listenerDedupPolicies = listenerDedupPolicies;
+  }
+
   public long getExceptionLimit() {
     return exceptionLimit;
   }
@@ -186,6 +401,14 @@ public class BeetleAmqpConfiguration {
     return beetlePolicyUpdatesRoutingKey;
   }
 
+  public int getPolicyPublishTimeoutSeconds() {
+    return policyPublishTimeoutSeconds;
+  }
+
+  public void setPolicyPublishTimeoutSeconds(int policyPublishTimeoutSeconds) {
+    this.policyPublishTimeoutSeconds = policyPublishTimeoutSeconds;
+  }
+
   public boolean isDeadLetteringEnabled() {
     return deadLetteringEnabled;
   }
@@ -202,6 +425,150 @@ public class BeetleAmqpConfiguration {
     this.redisFailoverTimeoutSeconds = redisFailoverTimeoutSeconds;
   }
 
+  public int getConnectionQuorum() {
+    return connectionQuorum;
+  }
+
+  public void setConnectionQuorum(int connectionQuorum) {
+    this.connectionQuorum = connectionQuorum;
+  }
+
+  public int getBrokerDrainSeconds() {
+    return brokerDrainSeconds;
+  }
+
+  public void setBrokerDrainSeconds(int brokerDrainSeconds) {
+    this.brokerDrainSeconds = brokerDrainSeconds;
+  }
+
+  public int getMaxConsumersPerChannel() {
+    return maxConsumersPerChannel;
+  }
+
+  public void setMaxConsumersPerChannel(int maxConsumersPerChannel) {
+    this.maxConsumersPerChannel = maxConsumersPerChannel;
+  }
+
+  public boolean isSeparateConsumeConnections() {
+    return separateConsumeConnections;
+  }
+
+  public void setSeparateConsumeConnections(boolean separateConsumeConnections) {
+    this.separateConsumeConnections = separateConsumeConnections;
+  }
+
+  public int getConnectionsPerBroker() {
+    return connectionsPerBroker;
+  }
+
+  public void setConnectionsPerBroker(int connectionsPerBroker) {
+    this.connectionsPerBroker = connectionsPerBroker;
+  }
+
+  public boolean isNioEnabled() {
+    return nioEnabled;
+  }
+
+  public void setNioEnabled(boolean nioEnabled) {
+    this.nioEnabled = nioEnabled;
+  }
+
+  public int getNioThreads() {
+    return nioThreads;
+  }
+
+  public void setNioThreads(int nioThreads) {
+    this.nioThreads = nioThreads;
+  }
+
+  public int getConsumerDispatchThreads() {
+    return consumerDispatchThreads;
+  }
+
+  public void setConsumerDispatchThreads(int consumerDispatchThreads) {
+    this.consumerDispatchThreads = consumerDispatchThreads;
+  }
+
+  public boolean isHandlerThreadPerMessage() {
+    return handlerThreadPerMessage;
+  }
+
+  public void setHandlerThreadPerMessage(boolean handlerThreadPerMessage) {
+    this.handlerThreadPerMessage = handlerThreadPerMessage;
+  }
+
+  public int getHandlerLanes() {
+    return handlerLanes;
+  }
+
+  public void setHandlerLanes(int handlerLanes) {
+    this.handlerLanes = handlerLanes;
+  }
+
+  public String getHandlerLaneKey() {
+    return handlerLaneKey;
+  }
+
+  public void setHandlerLaneKey(String handlerLaneKey) {
+    this.handlerLaneKey = handlerLaneKey;
+  }
+
+  public boolean isAdaptiveQosEnabled() {
+    return adaptiveQosEnabled;
+  }
+
+  public void setAdaptiveQosEnabled(boolean adaptiveQosEnabled) {
+    this.adaptiveQosEnabled = adaptiveQosEnabled;
+  }
+
+  public int getAdaptiveQosMinPrefetch() {
+    return adaptiveQosMinPrefetch;
+  }
+
+  public void setAdaptiveQosMinPrefetch(int adaptiveQosMinPrefetch) {
+    this.adaptiveQosMinPrefetch = adaptiveQosMinPrefetch;
+  }
+
+  public int getAdaptiveQosMaxPrefetch() {
+    return adaptiveQosMaxPrefetch;
+  }
+
+  public void setAdaptiveQosMaxPrefetch(int adaptiveQosMaxPrefetch) {
+    this.adaptiveQosMaxPrefetch = adaptiveQosMaxPrefetch;
+  }
+
+  public long getAdaptiveQosTargetMs() {
+    return adaptiveQosTargetMs;
+  }
+
+  public void setAdaptiveQosTargetMs(long adaptiveQosTargetMs) {
+    this.adaptiveQosTargetMs = adaptiveQosTargetMs;
+  }
+
+  public long getMaxInFlightBytes() {
+    return maxInFlightBytes;
+  }
+
+  public void setMaxInFlightBytes(long maxInFlightBytes) {
+    this.maxInFlightBytes = maxInFlightBytes;
+  }
+
+  public boolean isTopologyCacheEnabled() {
+    return topologyCacheEnabled;
+  }
+
+  public void setTopologyCacheEnabled(boolean topologyCacheEnabled) {
+    this.topologyCacheEnabled = topologyCacheEnabled;
+  }
+
+  public String getDelayQueueTiers() {
+    return delayQueueTiers;
+  }
+
+  public void setDelayQueueTiers(String delayQueueTiers) {
+    this.delayQueueTiers = delayQueueTiers;
+  }
+
   public int getMessageLifetimeSeconds() {
     return messageLifetimeSeconds;
   }
@@ -1,9 +1,13 @@
 package com.xing.beetle.amqp;
 
+import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.AMQP.BasicProperties;
 import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.Consumer;
+import com.rabbitmq.client.Envelope;
 import com.rabbitmq.client.GetResponse;
+import com.rabbitmq.client.ShutdownSignalException;
 import com.xing.beetle.BeetleHeader;
 import com.xing.beetle.util.ExceptionSupport;
 import com.xing.beetle.util.ExceptionSupport.Function;
@@ -14,53 +18,477 @@ import java.lang.System.Logger;
 import java.lang.System.Logger.Level;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import static java.util.Objects.requireNonNull;
 
 /** BeetleChannel wraps one or more actual AMQP channels for consumption by a message processor. */
 public class BeetleChannel implements DefaultChannel.Decorator {
 
   private static final Logger LOGGER = System.getLogger(BeetleChannel.class.getName());
   private static final int FLAG_REDUNDANT = 1;
+  // serves topology operations on the brokers beyond the first, see topology
+  private static final ExecutorService TOPOLOGY_EXECUTOR =
+      Executors.newFixedThreadPool(4, BeetleConnectionFactory.daemonThreads("beetle-topology-"));
 
-  private final RingStream<Channel> delegates;
+  private volatile RingStream<Channel> publishers;
+  private volatile RingStream<Channel> delegates;
   private final BeetleAmqpConfiguration configuration;
   private final MsgDeliveryTagMapping tagMapping;
+  // active consumers and qos setting, replayed on channels attached later on
+  private final Map<String, ExceptionSupport.Function<Channel, String>> consumers;
+  private final Map<String, String> consumedQueues;
+  // consumers handing deliveries over on lanes, consulted by multiple acknowledgements
+  private final Map<String, PartitionedConsumer> partitionedConsumers;
+  private ExceptionSupport.Consumer<Channel> qos;
+  // read by the adaptive qos without holding the monitor of the channel
+  private volatile int qosPrefetchSize;
+  private volatile boolean qosGlobal = true;
+  private volatile int consumerCount;
+  // tunes the prefetch count of the broker channels if enabled, null otherwise
+  private final AdaptiveQos adaptiveQos;
+  // limits the unacknowledged bytes of all channels of the connection if enabled, null otherwise
+  private final InFlightBudget budget;
+  private final InFlightBudget.Account account;
+  private final Map<String, Consumer> callbacks;
+  private final boolean dropExpired;
+  private final LongAdder expiredMessages;
+  private boolean paused;
+  // the consumers cancelled by the current pause and how often each consumer has been paused, the
+  // latter tells cancellations by a pause from those by the consumer even if confirmed late
+  private final Set<String> pausedConsumers;
+  private final Map<String, Integer> pauses;
+  private volatile boolean closed;
+  private final ExceptionSupport.Consumer<BeetleChannel> onClose;
+
+  /**
+   * DeliveryPipeline passes the deliveries of one broker channel on to the consumer. It maps the
+   * delivery tag and records the delivery for the adaptive qos and the in-flight budget in one
+   * step, instead of wrapping the consumer once per concern. Auto acknowledged deliveries are
+   * passed on as they are, they are never acknowledged by the consumer.
+   */
+  private class DeliveryPipeline implements Consumer {
+
+    private final Consumer delegate;
+    private final Channel channel;
+    private final boolean autoAck;
+    private final int pause;
+
+    DeliveryPipeline(Consumer delegate, Channel channel, boolean autoAck, String consumerTag) {
+      this.delegate = requireNonNull(delegate);
+      this.channel = requireNonNull(channel);
+      this.autoAck = autoAck;
+      this.pause = pauses.getOrDefault(consumerTag, 0);
+    }
+
+    @Override
+    public void handleConsumeOk(String consumerTag) {
+      delegate.handleConsumeOk(consumerTag);
+    }
+
+    @Override
+    public void handleCancelOk(String consumerTag) {
+      // cancellations by a pause are hidden from the consumer, even if confirmed after resuming
+      if (pause == pauses.getOrDefault(consumerTag, 0)) {
+        delegate.handleCancelOk(consumerTag);
+      }
+    }
+
+    @Override
+    public void handleCancel(String consumerTag) throws IOException {
+      delegate.handleCancel(consumerTag);
+    }
+
+    @Override
+    public void handleShutdownSignal(String consumerTag, ShutdownSignalException sig) {
+      delegate.handleShutdownSignal(consumerTag, sig);
+    }
+
+    @Override
+    public void handleRecoverOk(String consumerTag) {
+      delegate.handleRecoverOk(consumerTag);
+    }
+
+    @Override
+    public void handleDelivery(
+        String consumerTag, Envelope envelope, BasicProperties properties, byte[] body)
+        throws IOException {
+      if (!autoAck) {
+        if (dropExpired && isExpired(properties)) {
+          // acknowledged right away on the decorated channel it was consumed on, so the
+          // decorators forget the delivery; the consumer never sees the message
+          channel.basicAck(envelope.getDeliveryTag(), false);
+          expiredMessages.increment();
+          return;
+        }
+        envelope = tagMapping.mapEnvelope(channel, envelope);
+        if (adaptiveQos != null) {
+          adaptiveQos.delivered(envelope.getDeliveryTag(), channel);
+        }
+        if (account != null) {
+          account.delivered(envelope.getDeliveryTag(), body != null ? body.length : 0);
+        }
+      }
+      delegate.handleDelivery(consumerTag, envelope, properties, body);
+    }
+  }
+
+  /** @return true if the expires_at header (a unix timestamp) of the message has passed */
+  private static boolean isExpired(BasicProperties properties) {
+    Map<String, Object> headers = properties != null ? properties.getHeaders() : null;
+    Object expiresAt = headers != null ? headers.get(BeetleHeader.EXPIRES_AT) : null;
+    if (expiresAt == null) {
+      return false;
+    }
+    long timestamp;
+    if (expiresAt instanceof Number) {
+      timestamp = ((Number) expiresAt).longValue();
+    } else {
+      try {
+        timestamp = Long.parseLong(expiresAt.toString());
+      } catch (NumberFormatException e) {
+        // left to the handler
+        return false;
+      }
+    }
+    return timestamp > 0 && timestamp < Instant.now().getEpochSecond();
+  }
 
   BeetleChannel(List<Channel> channels, BeetleAmqpConfiguration configuration) {
-    this.delegates = new RingStream<>(channels.toArray(new Channel[channels.size()]));
+    this(channels, Collections.emptyList(), configuration);
+  }
+
+  /**
+   * @param channels channels to the brokers messages are published to and consumed from
+   * @param subscriptionChannels channels to additional brokers which are only consumed from
+   */
+  BeetleChannel(
+      List<Channel> channels,
+      List<Channel> subscriptionChannels,
+      BeetleAmqpConfiguration configuration) {
+    this(channels, subscriptionChannels, configuration, null, new LongAdder());
+  }
+
+  /**
+   * @param budget budget shared by the channels of the connection or null
+   * @param expiredMessages counts the expired messages dropped on delivery
+   */
+  BeetleChannel(
+      List<Channel> channels,
+      List<Channel> subscriptionChannels,
+      BeetleAmqpConfiguration configuration,
+      InFlightBudget budget,
+      LongAdder expiredMessages) {
+    this(channels, subscriptionChannels, configuration, budget, expiredMessages, channel -> {});
+  }
+
+  /** @param onClose told once the channel is closed or aborted, e.g. to forget about it */
+  BeetleChannel(
+      List<Channel> channels,
+      List<Channel> subscriptionChannels,
+      BeetleAmqpConfiguration configuration,
+      InFlightBudget budget,
+      LongAdder expiredMessages,
+      ExceptionSupport.Consumer<BeetleChannel> onClose) {
+    this.publishers = new RingStream<>(channels.toArray(new Channel[channels.size()]));
+    this.delegates =
+        publishers.with(subscriptionChannels.toArray(new Channel[subscriptionChannels.size()]));
     this.configuration = configuration;
     this.tagMapping = new MsgDeliveryTagMapping();
+    this.consumers = new LinkedHashMap<>();
+    this.consumedQueues = new HashMap<>();
+    this.partitionedConsumers = new ConcurrentHashMap<>();
+    this.adaptiveQos =
+        configuration != null && configuration.isAdaptiveQosEnabled()
+            ? new AdaptiveQos(configuration, this::retuneQos)
+            : null;
+    this.budget = budget;
+    this.account = budget != null ? budget.account() : null;
+    this.callbacks = new HashMap<>();
+    this.dropExpired = configuration != null && configuration.isDropExpiredOnDelivery();
+    this.expiredMessages = requireNonNull(expiredMessages);
+    this.pausedConsumers = new LinkedHashSet<>();
+    this.pauses = new ConcurrentHashMap<>();
+    this.onClose = requireNonNull(onClose);
+    delegates.streamAll().forEach(this::watch);
+  }
+
+  /** Releases the budget of the deliveries on a broker channel once it is shut down. */
+  private void watch(Channel channel) {
+    if (account != null) {
+      channel.addShutdownListener(cause -> account.lost(tagMapping.tagsOf(channel)));
+    }
+  }
+
+  /**
+   * Adds the channel of a broker added at runtime. The active consumers of this channel start to
+   * consume from the new broker as well.
+   *
+   * @param channel channel to the new broker
+   * @param publish whether messages are published to the new broker
+   */
+  synchronized void attach(Channel channel, boolean publish) throws IOException {
+    if (qos != null) {
+      qos.accept(channel);
+    }
+    for (Map.Entry<String, ExceptionSupport.Function<Channel, String>> consumer :
+        consumers.entrySet()) {
+      if (!pausedConsumers.contains(consumer.getKey())) {
+        consumer.getValue().apply(channel);
+      }
+    }
+    delegates = delegates.with(channel);
+    watch(channel);
+    if (publish) {
+      publishers = publishers.with(channel);
+    }
+  }
+
+  /**
+   * Removes the channel of a broker being drained. Nothing is published to it anymore and its
+   * consumers are cancelled. Deliveries received before can still be acknowledged.
+   */
+  synchronized void detach(Channel channel) {
+    publishers = publishers.without(channel);
+    delegates = delegates.without(channel);
+    for (String consumerTag : consumers.keySet()) {
+      ExceptionSupport.Consumer<Channel> cancel = ch -> ch.basicCancel(consumerTag);
+      cancel
+          .executeAndCatch(channel)
+          .ifPresent(e -> LOGGER.log(Level.DEBUG, "Failed to cancel " + consumerTag, e));
+    }
+    if (adaptiveQos != null) {
+      adaptiveQos.remove(channel);
+    }
+  }
+
+  /**
+   * Cancels the active consumers on all brokers, keeping them for {@link #resume}. Consumers of
+   * queues the broker deletes with their last consumer keep consuming.
+   */
+  synchronized void pause() {
+    if (paused || closed) {
+      return;
+    }
+    paused = true;
+    for (String consumerTag : consumers.keySet()) {
+      if (budget != null && !budget.isPausable(consumedQueues.get(consumerTag))) {
+        LOGGER.log(Level.DEBUG, "Not pausing " + consumerTag + ", its queue would be deleted");
+        continue;
+      }
+      pauses.merge(consumerTag, 1, Integer::sum);
+      pausedConsumers.add(consumerTag);
+      ExceptionSupport.Consumer<Channel> cancel = ch -> ch.basicCancel(consumerTag);
+      cancel
+          .mapAndCatch(delegates.streamAll())
+          .forEach(e -> LOGGER.log(Level.WARNING, "Failed to pause " + consumerTag, e));
+    }
+  }
+
+  /** Restarts the consumers cancelled by {@link #pause}. */
+  synchronized void resume() {
+    if (!paused) {
+      return;
+    }
+    paused = false;
+    List<String> resumed = new ArrayList<>(pausedConsumers);
+    pausedConsumers.clear();
+    if (closed) {
+      return;
+    }
+    for (String consumerTag : resumed) {
+      ExceptionSupport.Consumer<Channel> consume = ch -> consumers.get(consumerTag).apply(ch);
+      consume
+          .mapAndCatch(delegates.streamAll())
+          .forEach(e -> LOGGER.log(Level.WARNING, "Failed to resume " + consumerTag, e));
+    }
+  }
+
+  boolean isClosed() {
+    return closed;
   }
 
   @Override
-  public void basicAck(long deliveryTag, boolean multiple) throws IOException {
-    tagMapping.basicAck(deliveryTag, multiple);
+  public void abort(int closeCode, String closeMessage) throws IOException {
+    closed = true;
+    try {
+      DefaultChannel.Decorator.super.abort(closeCode, closeMessage);
+    } finally {
+      release();
+    }
   }
 
   @Override
-  public void basicQos(int prefetchCount) throws IOException {
+  public void close(int closeCode, String closeMessage) throws IOException, TimeoutException {
+    closed = true;
+    try {
+      DefaultChannel.Decorator.super.close(closeCode, closeMessage);
+    } finally {
+      release();
+    }
+  }
+
+  /**
+   * the unacknowledged deliveries are requeued by the brokers, so they don't count anymore, and the
+   * broker channels are not tuned anymore
+   */
+  private void release() {
+    if (budget != null) {
+      budget.unregister(this);
+      account.closed();
+    }
+    if (adaptiveQos != null) {
+      delegates.streamAll().forEach(adaptiveQos::remove);
+    }
+    onClose.accept(this);
+  }
+
+  @Override
+  public AMQP.Queue.DeclareOk queueDeclare(
+      String queue,
+      boolean durable,
+      boolean exclusive,
+      boolean autoDelete,
+      Map<String, Object> arguments)
+      throws IOException {
+    AMQP.Queue.DeclareOk ok =
+        DefaultChannel.Decorator.super.queueDeclare(
+            queue, durable, exclusive, autoDelete, arguments);
+    if (budget != null && (exclusive || autoDelete)) {
+      // e.g. Spring's anonymous queues, cancelling their consumer when pausing would delete them
+      budget.unpausable(ok != null ? ok.getQueue() : queue);
+    }
+    return ok;
+  }
+
+  @Override
+  public synchronized void basicCancel(String consumerTag) throws IOException {
+    consumers.remove(consumerTag);
+    consumerCount = consumers.size();
+    consumedQueues.remove(consumerTag);
+    partitionedConsumers.remove(consumerTag);
+    Consumer callback = callbacks.remove(consumerTag);
+    if (pausedConsumers.remove(consumerTag)) {
+      // the brokers don't know the consumer anymore
+      if (callback != null) {
+        callback.handleCancelOk(consumerTag);
+      }
+      return;
+    }
     delegates
         .streamAll()
-        .forEach((ExceptionSupport.Consumer<Channel>) ch -> ch.basicQos(prefetchCount));
+        .forEach((ExceptionSupport.Consumer<Channel>) ch -> ch.basicCancel(consumerTag));
+  }
+
+  /** Reports an exception thrown on a lane to the exception handler as the amqp client does. */
+  private void consumerFailed(
+      Consumer callback, String consumerTag, Envelope envelope, boolean autoAck, Throwable error) {
+    // auto acknowledged deliveries keep the delivery tag of their broker, so it is unknown
+    Optional<Channel> channel =
+        autoAck ? Optional.empty() : tagMapping.channelOf(envelope.getDeliveryTag());
+    Connection connection = channel.map(Channel::getConnection).orElse(null);
+    if (connection != null) {
+      connection
+          .getExceptionHandler()
+          .handleConsumerException(channel.get(), error, callback, consumerTag, "handleDelivery");
+    } else {
+      LOGGER.log(Level.ERROR, "Consumer " + consumerTag + " failed to handle a delivery", error);
+    }
+  }
+
+  private synchronized void applyQos(
+      int prefetchSize, int prefetchCount, boolean global, ExceptionSupport.Consumer<Channel> qos) {
+    this.qos = qos;
+    this.qosPrefetchSize = prefetchSize;
+    this.qosGlobal = global;
+    if (adaptiveQos != null) {
+      adaptiveQos.prefetchCount(prefetchCount);
+    }
+    delegates.streamAll().forEach(qos);
+  }
+
+  /**
+   * Applies a prefetch count computed by the adaptive qos to a broker channel. The count is meant
+   * for all consumers of this channel, so it is split among them. It is applied with the scope of
+   * the prefetch count set by basicQos, global unless set otherwise, so that it replaces it rather
+   * than adding a second limit. The broker applies a global one to running consumers as well and
+   * the broker channels turn it into a per consumer one again (see MultiPlexingConnection), while a
+   * per consumer one applies to the consumers started afterwards.
+   */
+  private void retuneQos(Channel channel, int prefetchCount) throws IOException {
+    int perConsumer = Math.max(1, prefetchCount / Math.max(1, consumerCount));
+    channel.basicQos(qosPrefetchSize, perConsumer, qosGlobal);
+  }
+
+  private void completed(long deliveryTag, boolean multiple) {
+    if (adaptiveQos != null) {
+      adaptiveQos.completed(deliveryTag, multiple);
+    }
+    if (account != null) {
+      account.completed(deliveryTag, multiple);
+    }
+  }
+
+  @Override
+  public void basicAck(long deliveryTag, boolean multiple) throws IOException {
+    if (multiple && !partitionedConsumers.isEmpty()) {
+      for (long tag : completedUpTo(deliveryTag)) {
+        basicAck(tag, false);
+      }
+      return;
+    }
+    try {
+      tagMapping.basicAck(deliveryTag, multiple);
+    } finally {
+      completed(deliveryTag, multiple);
+    }
+  }
+
+  /**
+   * Messages handled on lanes complete out of order, so a multiple acknowledgement covers the given
+   * message and those before it which are no longer waiting or being handled on a lane only.
+   */
+  private List<Long> completedUpTo(long deliveryTag) throws IOException {
+    List<Long> tags = tagMapping.tagsUpTo(deliveryTag);
+    if (tags.isEmpty()) {
+      throw new IOException("Unknown delivery tag");
+    }
+    tags.removeIf(
+        tag ->
+            tag != deliveryTag
+                && partitionedConsumers.values().stream().anyMatch(c -> c.isPending(tag)));
+    return tags;
+  }
+
+  @Override
+  public void basicQos(int prefetchCount) throws IOException {
+    applyQos(0, prefetchCount, false, ch -> ch.basicQos(prefetchCount));
   }
 
   @Override
   public void basicQos(int prefetchCount, boolean global) throws IOException {
-    delegates
-        .streamAll()
-        .forEach((ExceptionSupport.Consumer<Channel>) ch -> ch.basicQos(prefetchCount, global));
+    applyQos(0, prefetchCount, global, ch -> ch.basicQos(prefetchCount, global));
   }
 
   @Override
   public void basicQos(int prefetchSize, int prefetchCount, boolean global) throws IOException {
-    delegates
-        .streamAll()
-        .forEach(
-            (ExceptionSupport.Consumer<Channel>)
-                ch -> ch.basicQos(prefetchSize, prefetchCount, global));
+    applyQos(
+        prefetchSize,
+        prefetchCount,
+        global,
+        ch -> ch.basicQos(prefetchSize, prefetchCount, global));
   }
 
   @Override
-  public String basicConsume(
+  public synchronized String basicConsume(
       String queue,
       boolean autoAck,
       String consumerTag,
@@ -71,42 +499,134 @@ public class BeetleChannel implements DefaultChannel.Decorator {
       throws IOException {
     String tag =
         consumerTag == null || consumerTag.isEmpty() ? UUID.randomUUID().toString() : consumerTag;
+    // the lanes are shared by the brokers, so that their number bounds the parallelism
+    Consumer dispatcher = callback;
+    if (configuration != null && configuration.getHandlerLanes() > 1) {
+      PartitionedConsumer partitioned =
+          new PartitionedConsumer(
+              callback,
+              configuration.getHandlerLanes(),
+              configuration.getHandlerLaneKey(),
+              (failedTag, envelope, e) ->
+                  consumerFailed(callback, failedTag, envelope, autoAck, e));
+      partitionedConsumers.put(tag, partitioned);
+      dispatcher = partitioned;
+    } else if (configuration != null && configuration.isHandlerThreadPerMessage()) {
+      PartitionedConsumer unordered =
+          PartitionedConsumer.unordered(
+              callback,
+              (failedTag, envelope, e) ->
+                  consumerFailed(callback, failedTag, envelope, autoAck, e));
+      partitionedConsumers.put(tag, unordered);
+      dispatcher = unordered;
+    }
+    Consumer pipelined = dispatcher;
+    ExceptionSupport.Function<Channel, String> consumer =
+        ch ->
+            ch.basicConsume(
+                queue,
+                autoAck,
+                tag,
+                noLocal,
+                exclusive,
+                arguments,
+                new DeliveryPipeline(pipelined, ch, autoAck, tag));
     boolean all =
         delegates
             .streamAll()
-            .map(
-                (ExceptionSupport.Function<Channel, String>)
-                    ch ->
-                        ch.basicConsume(
-                            queue,
-                            autoAck,
-                            tag,
-                            noLocal,
-                            exclusive,
-                            arguments,
-                            tagMapping.createConsumerDecorator(callback, ch)))
+            .map(consumer)
+            // brokers which are still connecting return null and consume later on
+            .filter(Objects::nonNull)
             .allMatch(tag::equals);
     if (!all) {
       throw new AssertionError("Returned consumer tags dont match");
     }
+    consumers.put(tag, consumer);
+    consumerCount = consumers.size();
+    consumedQueues.put(tag, queue);
+    if (budget != null) {
+      callbacks.put(tag, callback);
+      if (budget.register(this)) {
+        pause();
+      }
+    }
     return tag;
   }
 
+  /**
+   * Polls the brokers in turn, starting after the one which answered the previous poll, and stops
+   * at the first message. So no message is fetched which isn't returned and all brokers are drained
+   * evenly.
+   */
   @Override
   public GetResponse basicGet(String queue, boolean autoAck) throws IOException {
-    return delegates
-        .streamAll()
-        .map(
-            (ExceptionSupport.Function<Channel, GetResponse>)
-                ch -> tagMapping.mapResponse(ch, ch.basicGet(queue, autoAck)))
-        .filter(Objects::nonNull)
-        .findAny()
-        .orElse(null);
+    RingStream<Channel> channels = delegates;
+    for (int i = 0; i < channels.size(); i++) {
+      Channel channel = channels.next();
+      GetResponse response = channel.basicGet(queue, autoAck);
+      if (response != null) {
+        return map(channel, response, autoAck);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Fetches up to max messages, taking one message from each broker in turn until enough messages
+   * have been fetched or all brokers are drained. A broker failing is skipped, the messages fetched
+   * from the others are returned anyway since they are no longer available on the brokers.
+   *
+   * @return the fetched messages, empty if there are none
+   * @throws IOException if a broker failed and no message has been fetched
+   */
+  public List<GetResponse> basicGetMany(String queue, int max, boolean autoAck) throws IOException {
+    List<GetResponse> responses = new ArrayList<>();
+    List<Channel> channels = delegates.streamAll().collect(Collectors.toList());
+    Exception failure = null;
+    while (responses.size() < max && !channels.isEmpty()) {
+      for (Iterator<Channel> it = channels.iterator(); it.hasNext() && responses.size() < max; ) {
+        Channel channel = it.next();
+        GetResponse response;
+        try {
+          response = channel.basicGet(queue, autoAck);
+        } catch (IOException | ShutdownSignalException e) {
+          LOGGER.log(Level.WARNING, "Failed to fetch from " + queue, e);
+          failure = e;
+          response = null;
+        }
+        if (response != null) {
+          responses.add(map(channel, response, autoAck));
+        } else {
+          it.remove();
+        }
+      }
+    }
+    if (responses.isEmpty() && failure instanceof IOException) {
+      throw (IOException) failure;
+    } else if (responses.isEmpty() && failure != null) {
+      throw (ShutdownSignalException) failure;
+    }
+    return responses;
+  }
+
+  /** auto acknowledged messages are not acknowledged by the caller, so they aren't mapped */
+  private GetResponse map(Channel channel, GetResponse response, boolean autoAck) {
+    return autoAck ? response : tagMapping.mapResponse(channel, response);
   }
 
   @Override
   public void basicNack(long deliveryTag, boolean multiple, boolean requeue) throws IOException {
-    tagMapping.basicNack(deliveryTag, multiple, requeue);
+    if (multiple && !partitionedConsumers.isEmpty()) {
+      for (long tag : completedUpTo(deliveryTag)) {
+        basicNack(tag, false, requeue);
+      }
+      return;
+    }
+    try {
+      tagMapping.basicNack(deliveryTag, multiple, requeue);
+    } finally {
+      completed(deliveryTag, multiple);
+    }
   }
 
   @Override
@@ -141,7 +661,7 @@ public class BeetleChannel implements DefaultChannel.Decorator {
     properties = props.builder().headers(headers).build();
 
     long sent =
-        delegates
+        publishers
             .streamAll()
             .filter(c -> send(c, exchange, routingKey, mandatory, immediate, properties, body))
             .limit(redundancy)
@@ -163,14 +683,91 @@ public class BeetleChannel implements DefaultChannel.Decorator {
     }
   }
 
+  /**
+   * Publishes a message to the broker an unacknowledged message was delivered from only, ignoring
+   * the publish redundancy, e.g. to park that message in a delay queue next to its redundant copy.
+   *
+   * @param deliveryTag delivery tag of the unacknowledged message
+   */
+  public void basicPublishToOrigin(
+      long deliveryTag, String exchange, String routingKey, BasicProperties props, byte[] body)
+      throws IOException {
+    Channel origin =
+        tagMapping
+            .channelOf(deliveryTag)
+            .orElseThrow(() -> new IOException("Unknown delivery tag " + deliveryTag));
+    origin.basicPublish(exchange, routingKey, props, body);
+  }
+
   @Override
   public void basicReject(long deliveryTag, boolean requeue) throws IOException {
-    tagMapping.basicReject(deliveryTag, requeue);
+    try {
+      tagMapping.basicReject(deliveryTag, requeue);
+    } finally {
+      completed(deliveryTag, false);
+    }
   }
 
   @Override
   public <R> R delegateMap(Type type, Function<Channel, ? extends R> ch) {
-    return delegates.streamAll().map(ch).reduce(null, (r1, r2) -> r1 != null ? r1 : r2);
+    List<Channel> channels = delegates.streamAll().collect(Collectors.toList());
+    if (type == Type.TOPOLOGY && channels.size() > 1) {
+      return topology(channels, ch);
+    }
+    return channels.stream().map(ch).reduce(null, (r1, r2) -> r1 != null ? r1 : r2);
+  }
+
+  /**
+   * Runs a topology operation against all brokers concurrently, so that it takes as long as on the
+   * slowest broker. The brokers beyond the first are served by a small pool shared by all channels.
+   * Every broker is tried, failures are reported together.
+   *
+   * @return the first non null result in broker order
+   */
+  private <R> R topology(List<Channel> channels, Function<Channel, ? extends R> fn) {
+    List<Future<? extends R>> executions = new ArrayList<>(channels.size());
+    for (Channel channel : channels.subList(1, channels.size())) {
+      executions.add(TOPOLOGY_EXECUTOR.submit(() -> fn.apply(channel)));
+    }
+    // the calling thread takes the first broker
+    FutureTask<R> first = new FutureTask<>(() -> fn.apply(channels.get(0)));
+    first.run();
+    executions.add(0, first);
+    R result = null;
+    List<String> failedBrokers = new ArrayList<>();
+    List<Throwable> failures = new ArrayList<>();
+    for (int i = 0; i < executions.size(); i++) {
+      try {
+        R r = executions.get(i).get();
+        result = result != null ? result : r;
+      } catch (ExecutionException e) {
+        failedBrokers.add(describe(channels.get(i)));
+        failures.add(e.getCause());
+      } catch (InterruptedException e) {
+        executions.forEach(execution -> execution.cancel(true));
+        Thread.currentThread().interrupt();
+        return ExceptionSupport.sneakyThrow(e);
+      }
+    }
+    if (!failures.isEmpty()) {
+      IOException failure =
+          new IOException(
+              String.format(
+                  "Topology operation failed on %d of %d brokers: %s",
+                  failures.size(), channels.size(), failedBrokers),
+              failures.get(0));
+      failures.stream().skip(1).forEach(failure::addSuppressed);
+      return ExceptionSupport.sneakyThrow(failure);
+    }
+    return result;
+  }
+
+  private static String describe(Channel channel) {
+    try {
+      return String.valueOf(channel.getConnection().getAddress());
+    } catch (RuntimeException e) {
+      return "channel " + channel.getChannelNumber();
+    }
   }
 
   @Override
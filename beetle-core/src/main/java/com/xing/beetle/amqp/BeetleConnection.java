@@ -4,14 +4,25 @@ import static java.util.Objects.requireNonNull;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
 
+import com.rabbitmq.client.Address;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.ShutdownListener;
 import com.rabbitmq.client.ShutdownSignalException;
+import com.xing.beetle.util.ExceptionSupport;
 import com.xing.beetle.util.ExceptionSupport.Function;
 
 import org.slf4j.Logger;
@@ -22,9 +33,33 @@ public class BeetleConnection implements DefaultConnection.Decorator, ShutdownLi
 
   private static final Logger LOGGER = LoggerFactory.getLogger(BeetleConnection.class);
 
-  private final List<? extends Connection> delegates;
+  /** Connector opens the (decorated) connection to a broker added at runtime. */
+  @FunctionalInterface
+  public interface Connector {
+    Connection connect(Address address);
+  }
+
+  private static class Broker {
+    private final Address address;
+    private final Connection connection;
+    private final boolean subscriptionOnly;
+
+    Broker(Address address, Connection connection, boolean subscriptionOnly) {
+      this.address = address;
+      this.connection = requireNonNull(connection);
+      this.subscriptionOnly = subscriptionOnly;
+    }
+  }
+
+  private final List<Broker> brokers;
   private final BeetleAmqpConfiguration configuration;
   private final Set<ShutdownListener> shutdownListeners;
+  // the per broker channels of the open channels created by this connection
+  private final Map<BeetleChannel, Map<Connection, Channel>> channels;
+  // shared by the channels, null if unlimited
+  private final InFlightBudget budget;
+  private final LongAdder expiredMessages;
+  private volatile Connector connector;
 
   /**
    * Build a new BeetleConnection that aggregfates the given connections.
@@ -32,10 +67,160 @@ public class BeetleConnection implements DefaultConnection.Decorator, ShutdownLi
    * @param connections Wrapped AMQP connections.
    */
   public BeetleConnection(List<Connection> connections, BeetleAmqpConfiguration configuration) {
-    this.delegates = new ArrayList<>(connections);
+    this(connections, Collections.emptyList(), configuration);
+  }
+
+  /**
+   * Build a new BeetleConnection that aggregates the given connections.
+   *
+   * @param connections Wrapped AMQP connections used for publishing and consuming.
+   * @param subscriptionConnections Wrapped AMQP connections used for consuming only.
+   */
+  public BeetleConnection(
+      List<Connection> connections,
+      List<Connection> subscriptionConnections,
+      BeetleAmqpConfiguration configuration) {
+    this.brokers = new CopyOnWriteArrayList<>();
+    connections.forEach(c -> brokers.add(new Broker(null, c, false)));
+    subscriptionConnections.forEach(c -> brokers.add(new Broker(null, c, true)));
     this.configuration = configuration;
     this.shutdownListeners = new HashSet<>();
-    connections.forEach(c -> c.addShutdownListener(this));
+    this.channels = Collections.synchronizedMap(new LinkedHashMap<>());
+    this.budget =
+        configuration != null && configuration.getMaxInFlightBytes() > 0
+            ? new InFlightBudget(configuration.getMaxInFlightBytes())
+            : null;
+    this.expiredMessages = new LongAdder();
+    brokers.forEach(b -> b.connection.addShutdownListener(this));
+  }
+
+  /**
+   * Assigns the broker addresses to the connections given at construction (in the same order) and
+   * enables adding brokers at runtime.
+   */
+  void bindAddresses(
+      List<Address> addresses, List<Address> subscriptionAddresses, Connector connector) {
+    List<Address> all = new ArrayList<>(addresses);
+    all.addAll(subscriptionAddresses);
+    for (int i = 0; i < all.size() && i < brokers.size(); i++) {
+      Broker broker = brokers.get(i);
+      brokers.set(i, new Broker(all.get(i), broker.connection, broker.subscriptionOnly));
+    }
+    this.connector = requireNonNull(connector);
+  }
+
+  /**
+   * @return the number of expired messages the channels of this connection dropped on delivery (see
+   *     beetle.drop_expired_on_delivery)
+   */
+  public long getExpiredMessagesDropped() {
+    return expiredMessages.sum();
+  }
+
+  /** @return the addresses of the current brokers */
+  public List<Address> getBrokerAddresses() {
+    return brokers.stream()
+        .map(b -> b.address)
+        .filter(Objects::nonNull)
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Adds a broker. Open channels attach to it right away: their consumers start consuming from it
+   * and, unless it is subscription only, messages are published to it as well.
+   *
+   * @param address address of the broker
+   * @param subscriptionOnly whether the broker is only consumed from
+   */
+  public synchronized void addBroker(Address address, boolean subscriptionOnly) throws IOException {
+    if (connector == null) {
+      throw new IllegalStateException("Brokers can not be added to this connection");
+    }
+    if (getBrokerAddresses().contains(address)) {
+      return;
+    }
+    Connection connection = connector.connect(address);
+    connection.addShutdownListener(this);
+    brokers.add(new Broker(address, connection, subscriptionOnly));
+    synchronized (channels) {
+      for (Map.Entry<BeetleChannel, Map<Connection, Channel>> entry : channels.entrySet()) {
+        if (!entry.getKey().isClosed()) {
+          Channel channel = connection.createChannel();
+          entry.getKey().attach(channel, !subscriptionOnly);
+          entry.getValue().put(connection, channel);
+        }
+      }
+    }
+    LOGGER.info("Added broker {}", address);
+  }
+
+  /**
+   * Drains a broker: nothing is published to it anymore and all consumers are cancelled. The
+   * connection is closed after beetle.broker_drain_seconds, giving in-flight deliveries the chance
+   * to be acknowledged.
+   *
+   * @param address address of the broker
+   */
+  public synchronized void drainBroker(Address address) {
+    Broker broker =
+        brokers.stream().filter(b -> address.equals(b.address)).findFirst().orElse(null);
+    if (broker == null) {
+      return;
+    }
+    brokers.remove(broker);
+    synchronized (channels) {
+      channels.forEach(
+          (beetleChannel, delegates) -> {
+            Channel channel = delegates.remove(broker.connection);
+            if (channel != null) {
+              beetleChannel.detach(channel);
+            }
+          });
+    }
+    LOGGER.info("Draining broker {}", address);
+    CompletableFuture.delayedExecutor(configuration.getBrokerDrainSeconds(), TimeUnit.SECONDS)
+        .execute(
+            () -> {
+              broker.connection.removeShutdownListener(this);
+              ExceptionSupport.Consumer<Connection> closing = Connection::close;
+              closing
+                  .executeAndCatch(broker.connection)
+                  .ifPresent(e -> LOGGER.warn("Failed to close drained broker " + address, e));
+            });
+  }
+
+  /**
+   * Adds and drains brokers so that the current brokers match the given server lists.
+   *
+   * @param servers comma separated list of brokers to publish to and consume from
+   * @param subscriptionServers comma separated list of brokers only consumed from
+   */
+  public synchronized void updateBrokers(String servers, String subscriptionServers)
+      throws IOException {
+    List<Address> publish = BeetleConnectionFactory.parseAddresses(servers);
+    List<Address> subscribe = BeetleConnectionFactory.parseAddresses(subscriptionServers);
+    subscribe.removeAll(publish);
+    addBrokers(publish, subscribe);
+    for (Broker broker : brokers) {
+      boolean keep =
+          broker.subscriptionOnly
+              ? subscribe.contains(broker.address)
+              : publish.contains(broker.address);
+      if (broker.address != null && !keep) {
+        drainBroker(broker.address);
+      }
+    }
+    // brokers which changed their role were drained above and are added again
+    addBrokers(publish, subscribe);
+  }
+
+  private void addBrokers(List<Address> publish, List<Address> subscribe) throws IOException {
+    for (Address address : publish) {
+      addBroker(address, false);
+    }
+    for (Address address : subscribe) {
+      addBroker(address, true);
+    }
   }
 
   @Override
@@ -43,21 +228,68 @@ public class BeetleConnection implements DefaultConnection.Decorator, ShutdownLi
     shutdownListeners.add(requireNonNull(listener));
   }
 
+  /** synchronized with adding and draining brokers, so that a new channel covers all brokers */
   @Override
-  public Channel createChannel(int channelNumber) throws IOException {
-    List<Channel> channels = new ArrayList<>();
-    for (Connection connection : delegates) {
-      channels.add(
+  public synchronized Channel createChannel(int channelNumber) throws IOException {
+    Map<Connection, Channel> delegates = new LinkedHashMap<>();
+    List<Channel> publishing = new ArrayList<>();
+    List<Channel> subscribing = new ArrayList<>();
+    for (Broker broker : brokers) {
+      Channel channel =
           channelNumber >= 0
-              ? connection.createChannel(channelNumber)
-              : connection.createChannel());
+              ? broker.connection.createChannel(channelNumber)
+              : broker.connection.createChannel();
+      delegates.put(broker.connection, channel);
+      (broker.subscriptionOnly ? subscribing : publishing).add(channel);
     }
-    return new BeetleChannel(channels, configuration);
+    BeetleChannel channel =
+        new BeetleChannel(
+            publishing, subscribing, configuration, budget, expiredMessages, channels::remove);
+    channels.put(channel, delegates);
+    return channel;
+  }
+
+  /** @return the number of channels created by this connection which are not closed yet */
+  int openChannels() {
+    return channels.size();
+  }
+
+  /** @return the first open delegate, used to answer queries about the physical connection */
+  private Connection primary() {
+    for (Broker broker : brokers) {
+      if (broker.connection.isOpen()) {
+        return broker.connection;
+      }
+    }
+    return brokers.get(0).connection;
+  }
+
+  @Override
+  public int getChannelMax() {
+    return primary().getChannelMax();
+  }
+
+  @Override
+  public int getFrameMax() {
+    return primary().getFrameMax();
+  }
+
+  @Override
+  public int getHeartbeat() {
+    return primary().getHeartbeat();
+  }
+
+  @Override
+  public int getPort() {
+    return primary().getPort();
   }
 
   @Override
   public <R> R delegateMap(Function<Connection, ? extends R> fn) {
-    return delegates.stream().map(fn).reduce(null, (r1, r2) -> r1 != null ? r1 : r2);
+    return brokers.stream()
+        .map(b -> b.connection)
+        .map(fn)
+        .reduce(null, (r1, r2) -> r1 != null ? r1 : r2);
   }
 
   @Override
@@ -1,11 +1,20 @@
 package com.xing.beetle.amqp;
 
 import java.io.IOException;
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeoutException;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.rabbitmq.client.Address;
 import com.rabbitmq.client.AddressResolver;
@@ -16,20 +25,201 @@ import com.rabbitmq.client.RecoverableConnection;
 import com.xing.beetle.util.ExceptionSupport.Supplier;
 import com.xing.beetle.util.RetryExecutor;
 
-public class BeetleConnectionFactory extends ConnectionFactory {
+public class BeetleConnectionFactory extends ConnectionFactory implements AutoCloseable {
 
-  private RetryExecutor connectionEstablishingExecutor = RetryExecutor.SYNCHRONOUS;
+  private RetryExecutor connectionEstablishingExecutor = RetryExecutor.ASYNC_IMMEDIATELY;
   private boolean invertRequeueParameter = false;
   private BeetleAmqpConfiguration beetleAmqpConfiguration;
+  // owned by this factory, null if the client library's per connection pools are used
+  private ExecutorService consumerDispatchExecutor;
 
   public BeetleConnectionFactory(BeetleAmqpConfiguration beetleAmqpConfiguration) {
     this.beetleAmqpConfiguration = beetleAmqpConfiguration;
+    if (beetleAmqpConfiguration.isNioEnabled()) {
+      // the NIO frame handler factory and its IO threads are shared by all connections
+      useNio();
+      if (beetleAmqpConfiguration.getNioThreads() > 0) {
+        getNioParams().setNbIoThreads(beetleAmqpConfiguration.getNioThreads());
+      }
+    }
+    if (beetleAmqpConfiguration.getConsumerDispatchThreads() > 0) {
+      consumerDispatchExecutor =
+          Executors.newFixedThreadPool(
+              beetleAmqpConfiguration.getConsumerDispatchThreads(),
+              daemonThreads("beetle-consumer-dispatch-"));
+      setSharedExecutor(consumerDispatchExecutor);
+    }
+  }
+
+  /**
+   * Shuts down the consumer dispatch pool (see beetle.consumer_dispatch_threads). The connections
+   * of this factory have to be closed before.
+   */
+  @Override
+  public void close() {
+    if (consumerDispatchExecutor != null) {
+      consumerDispatchExecutor.shutdown();
+    }
+  }
+
+  static ThreadFactory daemonThreads(String prefix) {
+    AtomicInteger count = new AtomicInteger();
+    return runnable -> {
+      Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
   }
 
   private Supplier<RecoverableConnection> connection(
       ExecutorService executor, AddressResolver resolver, String clientProvidedName) {
-    return () ->
-        (RecoverableConnection) super.newConnection(executor, resolver, clientProvidedName);
+    return () -> newBrokerConnection(executor, resolver, clientProvidedName);
+  }
+
+  /** Opens a single connection to the broker of the given resolver. */
+  RecoverableConnection newBrokerConnection(
+      ExecutorService executor, AddressResolver resolver, String clientProvidedName)
+      throws IOException, TimeoutException {
+    return (RecoverableConnection) super.newConnection(executor, resolver, clientProvidedName);
+  }
+
+  /**
+   * Opens the connections to single brokers. Depending on the configuration a broker gets several
+   * connections, which are striped, and separate connections for consumers.
+   */
+  private class BrokerConnector implements BeetleConnection.Connector {
+
+    private final RetryExecutor retryExecutor;
+    private final ExecutorService executor;
+    private final String clientProvidedName;
+    // the connection attempts made on startup, so that they can be aborted if the quorum is missed
+    private final List<CompletionStage<RecoverableConnection>> attempts =
+        new CopyOnWriteArrayList<>();
+    private volatile boolean started;
+
+    BrokerConnector(RetryExecutor retryExecutor, ExecutorService executor, String name) {
+      this.retryExecutor = retryExecutor;
+      this.executor = executor;
+      this.clientProvidedName = name;
+    }
+
+    void abort() {
+      attempts.forEach(attempt -> attempt.thenAccept(RecoverableConnection::abort));
+    }
+
+    /** Stops tracking the connection attempts, e.g. of brokers added at runtime. */
+    void started() {
+      started = true;
+      attempts.clear();
+    }
+
+    @Override
+    public Connection connect(Address address) {
+      return connect(address, new ArrayList<>());
+    }
+
+    /**
+     * @param ready receives a stage per connection which completes once it is established
+     * @return the decorated connection to the broker
+     */
+    Connection connect(Address address, List<CompletionStage<?>> ready) {
+      int count = Math.max(1, beetleAmqpConfiguration.getConnectionsPerBroker());
+      List<Connection> stripes = new ArrayList<>(count);
+      // queues might be declared on one stripe and consumed on another
+      Set<String> deadLetterQueues = ConcurrentHashMap.newKeySet();
+      for (int i = 0; i < count; i++) {
+        String name =
+            count > 1 ? suffixed(clientProvidedName, String.valueOf(i)) : clientProvidedName;
+        CompletionStage<RecoverableConnection> publishing = open(address, name);
+        CompletableFuture<RecoverableConnection> consuming =
+            beetleAmqpConfiguration.isSeparateConsumeConnections()
+                ? open(address, suffixed(name, "consume")).toCompletableFuture()
+                : publishing.toCompletableFuture();
+        RetryableConnection stripe =
+            new RetryableConnection(
+                publishing.thenCombine(consuming, (p, c) -> p),
+                c -> {
+                  Connection publisher = requeueAtEnd(c, deadLetterQueues);
+                  RecoverableConnection consumer = consuming.join();
+                  return new MultiPlexingConnection(
+                      publisher,
+                      consumer == c ? publisher : requeueAtEnd(consumer, deadLetterQueues),
+                      beetleAmqpConfiguration.getMaxConsumersPerChannel());
+                });
+        ready.add(stripe.whenEstablished());
+        stripes.add(stripe);
+      }
+      return count > 1 ? new StripedConnection(stripes) : stripes.get(0);
+    }
+
+    List<Connection> connectAll(List<Address> addresses, List<CompletionStage<?>> ready) {
+      List<Connection> connections = new ArrayList<>(addresses.size());
+      for (Address address : addresses) {
+        List<CompletionStage<?>> stripes = new ArrayList<>();
+        connections.add(connect(address, stripes));
+        ready.add(
+            CompletableFuture.allOf(
+                stripes.stream()
+                    .map(CompletionStage::toCompletableFuture)
+                    .toArray(CompletableFuture[]::new)));
+      }
+      return connections;
+    }
+
+    private CompletionStage<RecoverableConnection> open(Address address, String name) {
+      CompletionStage<RecoverableConnection> attempt =
+          retryExecutor.supply(
+              connection(executor, new ListAddressResolver(List.of(address)), name));
+      if (!started) {
+        attempts.add(attempt);
+      }
+      return attempt;
+    }
+  }
+
+  /**
+   * Waits until the configured quorum of the given brokers is connected. The remaining connections
+   * continue to be established in the background. Without a quorum it waits until every broker is
+   * connected or given up on, and unreachable brokers are left behind as before.
+   */
+  private void awaitQuorum(List<CompletionStage<?>> brokers, BrokerConnector connector)
+      throws IOException {
+    int configured = beetleAmqpConfiguration.getConnectionQuorum();
+    if (configured <= 0) {
+      CompletableFuture.allOf(
+              brokers.stream()
+                  .map(broker -> broker.handle((connection, error) -> null).toCompletableFuture())
+                  .toArray(CompletableFuture[]::new))
+          .join();
+      return;
+    }
+    int quorum = Math.min(configured, brokers.size());
+    if (quorum == 0) {
+      return;
+    }
+    CompletableFuture<Void> reached = new CompletableFuture<>();
+    AtomicInteger established = new AtomicInteger();
+    AtomicInteger failed = new AtomicInteger();
+    for (CompletionStage<?> broker : brokers) {
+      broker.whenComplete(
+          (connection, error) -> {
+            if (error == null) {
+              if (established.incrementAndGet() >= quorum) {
+                reached.complete(null);
+              }
+            } else if (failed.incrementAndGet() > brokers.size() - quorum) {
+              reached.completeExceptionally(error);
+            }
+          });
+    }
+    try {
+      reached.join();
+    } catch (CompletionException e) {
+      connector.abort();
+      throw new IOException(
+          String.format("Unable to connect to %d of %d brokers", quorum, brokers.size()),
+          e.getCause());
+    }
   }
 
   @Override
@@ -50,18 +240,42 @@ public class BeetleConnectionFactory extends ConnectionFactory {
         executor != null
             ? connectionEstablishingExecutor.withExecutor(executor)
             : connectionEstablishingExecutor;
-    List<Connection> connections =
-        addressResolver.getAddresses().stream()
-            .map(Collections::singletonList)
-            .map(ListAddressResolver::new)
-            .map(res -> connection(executor, res, clientProvidedName))
-            .map(retryExecutor::supply)
-            .map(RetryableConnection::new)
-            .map(
-                c -> new RequeueAtEndConnection(c, beetleAmqpConfiguration, invertRequeueParameter))
-            .map(MultiPlexingConnection::new)
-            .collect(Collectors.toList());
-    return new BeetleConnection(connections, beetleAmqpConfiguration);
+    List<Address> addresses = addressResolver.getAddresses();
+    List<Address> subscriptionAddresses =
+        parseAddresses(beetleAmqpConfiguration.getBeetleAdditionalSubscriptionServers());
+    subscriptionAddresses.removeAll(addresses);
+    // callers like Spring pass their own executor or null, which would bypass the shared pool
+    ExecutorService dispatchExecutor = executor != null ? executor : consumerDispatchExecutor;
+    BrokerConnector connector =
+        new BrokerConnector(retryExecutor, dispatchExecutor, clientProvidedName);
+    List<CompletionStage<?>> ready = new ArrayList<>();
+    List<Connection> connections = connector.connectAll(addresses, ready);
+    List<Connection> subscriptionConnections =
+        connector.connectAll(subscriptionAddresses, new ArrayList<>());
+    BeetleConnection connection =
+        new BeetleConnection(connections, subscriptionConnections, beetleAmqpConfiguration);
+    connection.bindAddresses(addresses, subscriptionAddresses, connector);
+    awaitQuorum(ready, connector);
+    connector.started();
+    return connection;
+  }
+
+  /** @param deadLetterQueues shared by all connections to the same broker */
+  private Connection requeueAtEnd(RecoverableConnection connection, Set<String> deadLetterQueues) {
+    return new RequeueAtEndConnection(
+        connection, beetleAmqpConfiguration, invertRequeueParameter, deadLetterQueues);
+  }
+
+  private static String suffixed(String name, String suffix) {
+    return name != null ? name + "-" + suffix : null;
+  }
+
+  /** @return the brokers of a comma separated list like "host1:5672,host2:5672" */
+  static List<Address> parseAddresses(String servers) {
+    if (servers == null || servers.trim().isEmpty()) {
+      return new ArrayList<>();
+    }
+    return new ArrayList<>(Arrays.asList(Address.parseAddresses(servers)));
   }
 
   public void setConnectionEstablishingExecutor(RetryExecutor connectionEstablishExecutor) {
@@ -0,0 +1,44 @@
+package com.xing.beetle.amqp;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * BufferConsumer receives the message bodies as read-only ByteBuffers, e.g. to parse them in place
+ * with a parser reading from buffers. The buffer is a view on the body read by the AMQP client, the
+ * decorators of the channel pass the body on as is, so the body isn't copied on its way to the
+ * handler. As the buffer is backed by a heap array it doesn't need to be released, but it should
+ * not be kept after handling the message to let the body be collected.
+ */
+public abstract class BufferConsumer extends DefaultConsumer {
+
+  private static final ByteBuffer EMPTY = ByteBuffer.allocate(0).asReadOnlyBuffer();
+
+  public BufferConsumer(Channel channel) {
+    super(channel);
+  }
+
+  @Override
+  public final void handleDelivery(
+      String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body)
+      throws IOException {
+    handleBuffer(
+        consumerTag,
+        envelope,
+        properties,
+        body != null ? ByteBuffer.wrap(body).asReadOnlyBuffer() : EMPTY.duplicate());
+  }
+
+  /**
+   * Called when a message is delivered.
+   *
+   * @param body read-only view on the message body, positioned at its start
+   */
+  public abstract void handleBuffer(
+      String consumerTag, Envelope envelope, AMQP.BasicProperties properties, ByteBuffer body)
+      throws IOException;
+}
@@ -0,0 +1,161 @@
+package com.xing.beetle.amqp;
+
+import com.xing.beetle.util.ThreadPerTaskExecutor;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * InFlightBudget limits the size of the messages delivered to the consumers of a connection which
+ * are not acknowledged yet, summed up over all brokers. RabbitMQ does not enforce a prefetch size
+ * and the prefetch count applies per channel, so without it a consumer of several brokers may
+ * buffer far more than its heap allows if messages are large. Once the budget is exceeded the
+ * consumers of all channels are paused, i.e. cancelled, and resumed when acknowledgements freed
+ * half of the budget. Consumers of queues deleted along with their last consumer are not paused.
+ */
+class InFlightBudget {
+
+  private static final Logger log = LoggerFactory.getLogger(InFlightBudget.class);
+
+  /** Account tracks the unacknowledged deliveries of one channel by (synthetic) delivery tag. */
+  class Account {
+
+    private final ConcurrentNavigableMap<Long, Integer> deliveries = new ConcurrentSkipListMap<>();
+
+    void delivered(long deliveryTag, int bytes) {
+      deliveries.put(deliveryTag, bytes);
+      add(bytes);
+    }
+
+    /** Releases the bytes of one or multiple acknowledged (or rejected) deliveries. */
+    void completed(long deliveryTag, boolean multiple) {
+      release(
+          multiple
+              ? deliveries.headMap(deliveryTag, true)
+              : deliveries.subMap(deliveryTag, deliveryTag + 1));
+    }
+
+    /**
+     * Releases the bytes of deliveries which can't be acknowledged anymore, e.g. of a lost broker.
+     */
+    void lost(Collection<Long> deliveryTags) {
+      for (long deliveryTag : deliveryTags) {
+        completed(deliveryTag, false);
+      }
+    }
+
+    /** Releases the bytes of all deliveries once the channel is closed. */
+    void closed() {
+      release(deliveries);
+    }
+
+    private void release(Map<Long, Integer> completed) {
+      long bytes = 0;
+      // removed one by one, so that a delivery released concurrently is subtracted once
+      for (Long deliveryTag : completed.keySet()) {
+        Integer size = completed.remove(deliveryTag);
+        if (size != null) {
+          bytes += size;
+        }
+      }
+      if (bytes > 0) {
+        add(-bytes);
+      }
+    }
+  }
+
+  private final long maxBytes;
+  private final Set<BeetleChannel> channels;
+  // queues deleted by the broker once their last consumer is cancelled, so they aren't paused
+  private final Set<String> unpausableQueues;
+  private long inFlight;
+  // whether consumption should be paused and whether the channels have been told so
+  private boolean paused;
+  private boolean applied;
+  private boolean applying;
+
+  InFlightBudget(long maxBytes) {
+    this.maxBytes = maxBytes;
+    this.channels = Collections.newSetFromMap(new WeakHashMap<>());
+    this.unpausableQueues = ConcurrentHashMap.newKeySet();
+  }
+
+  Account account() {
+    return new Account();
+  }
+
+  /**
+   * Registers a channel to be paused and resumed along with the others.
+   *
+   * @return true if the channel should pause right away
+   */
+  synchronized boolean register(BeetleChannel channel) {
+    channels.add(channel);
+    return applied;
+  }
+
+  synchronized void unregister(BeetleChannel channel) {
+    channels.remove(channel);
+  }
+
+  /** Records an auto-delete or exclusive queue, its consumers are not paused. */
+  void unpausable(String queue) {
+    unpausableQueues.add(queue);
+  }
+
+  boolean isPausable(String queue) {
+    return queue == null || !unpausableQueues.contains(queue);
+  }
+
+  synchronized long inFlight() {
+    return inFlight;
+  }
+
+  private synchronized void add(long bytes) {
+    inFlight += bytes;
+    boolean pause = paused ? inFlight > maxBytes / 2 : inFlight > maxBytes;
+    if (pause != paused) {
+      paused = pause;
+      if (!applying) {
+        applying = true;
+        // cancelling and consuming wait for the brokers, which must not block deliveries or acks
+        ThreadPerTaskExecutor.get().execute(this::apply);
+      }
+    }
+  }
+
+  /** Pauses or resumes the channels until they follow the latest decision. */
+  private void apply() {
+    while (true) {
+      boolean pause;
+      List<BeetleChannel> targets;
+      synchronized (this) {
+        if (applied == paused) {
+          applying = false;
+          return;
+        }
+        pause = paused;
+        applied = pause;
+        targets = new ArrayList<>(channels);
+        log.debug(
+            "Beetle: {} consumers, {} bytes in flight", pause ? "pausing" : "resuming", inFlight);
+      }
+      for (BeetleChannel channel : targets) {
+        if (pause) {
+          channel.pause();
+        } else {
+          channel.resume();
+        }
+      }
+    }
+  }
+}
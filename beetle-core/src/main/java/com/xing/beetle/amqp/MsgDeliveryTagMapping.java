@@ -4,8 +4,11 @@ import com.rabbitmq.client.*;
 import static com.xing.beetle.util.ExceptionSupport.BiConsumer;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
@@ -23,9 +26,21 @@ import static java.util.Objects.requireNonNull;
  */
 public class MsgDeliveryTagMapping {
 
-  private interface MsgResponse {
+  /** MsgResponse applies message results to the channel the message was delivered on. */
+  private static class MsgResponse {
+
+    private final Channel channel;
+    private final long deliveryTag;
+
+    MsgResponse(Channel channel, long deliveryTag) {
+      this.channel = channel;
+      this.deliveryTag = deliveryTag;
+    }
+
     Void apply(MsgResult msgResult, boolean multiple, boolean requeue, Predicate<Channel> when)
-        throws IOException;
+        throws IOException {
+      return when.test(channel) ? msgResult.invoke(channel, deliveryTag, multiple, requeue) : null;
+    }
   }
 
   /**
@@ -211,13 +226,35 @@ public class MsgDeliveryTagMapping {
    */
   private long mapDelivery(Channel channel, long deliveryTag) {
     long tag = deliveryTagGenerator.incrementAndGet();
-    deliveryTags.put(
-        tag,
-        (msgResult, multiple, requeue, when) ->
-            when.test(channel) ? msgResult.invoke(channel, deliveryTag, multiple, requeue) : null);
+    deliveryTags.put(tag, new MsgResponse(channel, deliveryTag));
     return tag;
   }
 
+  /** @return the synthetic delivery tags of the unacknowledged messages up to the given one */
+  List<Long> tagsUpTo(long deliveryTag) {
+    return new ArrayList<>(deliveryTags.headMap(deliveryTag, true).keySet());
+  }
+
+  /** @return the synthetic delivery tags of the unacknowledged messages delivered on the channel */
+  List<Long> tagsOf(Channel channel) {
+    List<Long> tags = new ArrayList<>();
+    deliveryTags.forEach(
+        (tag, response) -> {
+          if (response.channel == channel) {
+            tags.add(tag);
+          }
+        });
+    return tags;
+  }
+
+  /**
+   * @param deliveryTag synthetic delivery tag of an unacknowledged message
+   * @return the AMQP channel the message was delivered on
+   */
+  Optional<Channel> channelOf(long deliveryTag) {
+    return Optional.ofNullable(deliveryTags.get(deliveryTag)).map(response -> response.channel);
+  }
+
   /**
    * Replace real message envelope with a local copy using the replaced synthetic delivery tag
    * internally.
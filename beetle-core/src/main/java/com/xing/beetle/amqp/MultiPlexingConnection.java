@@ -15,11 +15,14 @@ public class MultiPlexingConnection implements DefaultConnection.Decorator {
 
   public static class MultiPlexingChannel implements DefaultChannel.Decorator {
 
-    private final Connection connection;
+    private final Connection consumeConnection;
     private final Map<String, Channel> consumerTags;
+    // consumer channels without consumers, kept open for their unacknowledged deliveries
+    private final Deque<Channel> idleConsumers;
     private final MsgDeliveryTagMapping tagMapping;
     private final Set<ConfirmListener> confirmListeners;
     private final Channel publisher;
+    private final int maxConsumersPerChannel;
 
     private volatile com.rabbitmq.client.Consumer defaultConsumer;
 
@@ -28,12 +31,25 @@ public class MultiPlexingConnection implements DefaultConnection.Decorator {
     private boolean qosGlobal = false;
 
     public MultiPlexingChannel(Connection connection) throws IOException {
-      this(connection, -1);
+      this(connection, connection, -1, 1);
     }
 
-    MultiPlexingChannel(Connection connection, int channelNumber) throws IOException {
-      this.connection = requireNonNull(connection);
+    /**
+     * @param connection connection to open the publisher channel on
+     * @param consumeConnection connection to open the consumer channels on
+     * @param channelNumber number of the publisher channel or -1
+     * @param maxConsumersPerChannel how many consumers share one consumer channel at most
+     */
+    MultiPlexingChannel(
+        Connection connection,
+        Connection consumeConnection,
+        int channelNumber,
+        int maxConsumersPerChannel)
+        throws IOException {
+      this.consumeConnection = requireNonNull(consumeConnection);
+      this.maxConsumersPerChannel = Math.max(1, maxConsumersPerChannel);
       this.consumerTags = new ConcurrentHashMap<>();
+      this.idleConsumers = new ArrayDeque<>();
       this.tagMapping = new MsgDeliveryTagMapping();
       this.confirmListeners = Collections.synchronizedSet(new HashSet<>());
       this.publisher =
@@ -45,7 +61,7 @@ public class MultiPlexingConnection implements DefaultConnection.Decorator {
       List<Throwable> exceptions = new ArrayList<>();
       ExceptionSupport.Consumer<Channel> aborting = c -> c.abort(closeCode, closeMessage);
       aborting.executeAndCatch(publisher).ifPresent(exceptions::add);
-      aborting.mapAndCatch(consumerTags.values().stream()).forEach(exceptions::add);
+      aborting.mapAndCatch(allConsumerChannels().stream()).forEach(exceptions::add);
       if (!exceptions.isEmpty()) {
         ExceptionSupport.sneakyThrow(exceptions.get(0));
       }
@@ -54,7 +70,7 @@ public class MultiPlexingConnection implements DefaultConnection.Decorator {
     @Override
     public void addConfirmListener(ConfirmListener listener) {
       if (confirmListeners.add(requireNonNull(listener))) {
-        consumerTags.values().forEach(c -> c.addConfirmListener(listener));
+        consumerChannels().forEach(c -> c.addConfirmListener(listener));
       }
     }
 
@@ -64,15 +80,20 @@ public class MultiPlexingConnection implements DefaultConnection.Decorator {
     }
 
     @Override
-    public void basicCancel(String consumerTag) throws IOException {
+    public synchronized void basicCancel(String consumerTag) throws IOException {
       Channel consumer = consumerTags.remove(consumerTag);
       if (consumer != null) {
         consumer.basicCancel(consumerTag);
+        if (consumersOn(consumer) == 0) {
+          idleConsumers.add(consumer);
+        } else if (qosGlobal) {
+          applyQos(consumer);
+        }
       }
     }
 
     @Override
-    public String basicConsume(
+    public synchronized String basicConsume(
         String queue,
         boolean autoAck,
         String consumerTag,
@@ -83,9 +104,13 @@ public class MultiPlexingConnection implements DefaultConnection.Decorator {
         throws IOException {
       consumerTag =
           consumerTag == null || consumerTag.isEmpty() ? UUID.randomUUID().toString() : consumerTag;
-      Channel channel = consumerTags.computeIfAbsent(consumerTag, this::newConsumer);
+      Channel channel = consumerTags.get(consumerTag);
+      if (channel == null) {
+        channel = pooledConsumer().orElseGet(this::newConsumer);
+        consumerTags.put(consumerTag, channel);
+      }
       channel.setDefaultConsumer(callback);
-      channel.basicQos(this.qosPrefetchSize, this.qosPrefetchCount, this.qosGlobal);
+      applyQos(channel);
 
       if (!autoAck) {
         callback = tagMapping.createConsumerDecorator(callback, channel);
@@ -98,31 +123,59 @@ public class MultiPlexingConnection implements DefaultConnection.Decorator {
 
     @Override
     public void basicQos(int prefetchCount) throws IOException {
-      this.qosPrefetchCount = prefetchCount;
-      consumerTags
-          .values()
-          .forEach((ExceptionSupport.Consumer<Channel>) ch -> ch.basicQos(prefetchCount));
+      basicQos(0, prefetchCount, false);
     }
 
     @Override
     public void basicQos(int prefetchCount, boolean global) throws IOException {
-      this.qosPrefetchCount = prefetchCount;
-      this.qosGlobal = global;
-      consumerTags
-          .values()
-          .forEach((ExceptionSupport.Consumer<Channel>) ch -> ch.basicQos(prefetchCount, global));
+      basicQos(0, prefetchCount, global);
     }
 
     @Override
-    public void basicQos(int prefetchSize, int prefetchCount, boolean global) throws IOException {
+    public synchronized void basicQos(int prefetchSize, int prefetchCount, boolean global)
+        throws IOException {
       this.qosPrefetchSize = prefetchSize;
       this.qosPrefetchCount = prefetchCount;
       this.qosGlobal = global;
-      consumerTags
-          .values()
-          .forEach(
-              (ExceptionSupport.Consumer<Channel>)
-                  ch -> ch.basicQos(prefetchSize, prefetchCount, global));
+      for (Channel channel : consumerChannels()) {
+        applyQos(channel);
+      }
+    }
+
+    /**
+     * Applies the qos settings to a consumer channel. A global prefetch count is meant per
+     * consumer, so it is multiplied by the number of consumers sharing the channel.
+     */
+    private void applyQos(Channel channel) throws IOException {
+      int prefetchCount = qosGlobal ? qosPrefetchCount * consumersOn(channel) : qosPrefetchCount;
+      channel.basicQos(qosPrefetchSize, prefetchCount, qosGlobal);
+    }
+
+    /** @return the distinct channels used by the consumers */
+    private Set<Channel> consumerChannels() {
+      return new LinkedHashSet<>(consumerTags.values());
+    }
+
+    /** @return the consumer channels including the idle ones */
+    private synchronized Set<Channel> allConsumerChannels() {
+      Set<Channel> channels = consumerChannels();
+      channels.addAll(idleConsumers);
+      return channels;
+    }
+
+    private int consumersOn(Channel channel) {
+      return (int) consumerTags.values().stream().filter(channel::equals).count();
+    }
+
+    /** @return an open consumer channel which has room for another consumer */
+    private Optional<Channel> pooledConsumer() {
+      if (maxConsumersPerChannel <= 1) {
+        return Optional.empty();
+      }
+      return consumerChannels().stream()
+          .filter(Channel::isOpen)
+          .filter(ch -> consumersOn(ch) < maxConsumersPerChannel)
+          .findFirst();
     }
 
     @Override
@@ -149,7 +202,7 @@ public class MultiPlexingConnection implements DefaultConnection.Decorator {
       List<Throwable> exceptions = new ArrayList<>();
       ExceptionSupport.Consumer<Channel> closing = c -> c.close(closeCode, closeMessage);
       closing.executeAndCatch(publisher).ifPresent(exceptions::add);
-      closing.mapAndCatch(consumerTags.values().stream()).forEach(exceptions::add);
+      closing.mapAndCatch(allConsumerChannels().stream()).forEach(exceptions::add);
       if (!exceptions.isEmpty()) {
         ExceptionSupport.sneakyThrow(exceptions.get(0));
       }
@@ -159,9 +212,7 @@ public class MultiPlexingConnection implements DefaultConnection.Decorator {
     public <R> R delegateMap(Type type, Function<Channel, ? extends R> fn) {
       switch (type) {
         case CONSUME:
-          return consumerTags.values().stream()
-              .map(fn)
-              .reduce(null, (r1, r2) -> r1 != null ? r1 : r2);
+          return consumerChannels().stream().map(fn).reduce(null, (r1, r2) -> r1 != null ? r1 : r2);
         default:
           return fn.apply(publisher);
       }
@@ -178,10 +229,16 @@ public class MultiPlexingConnection implements DefaultConnection.Decorator {
       return defaultConsumer;
     }
 
-    private Channel newConsumer(String tag) {
+    /** @return an idle consumer channel, e.g. of a resumed consumer, or a new one */
+    private Channel newConsumer() {
       ensureOpen();
+      for (Channel idle = idleConsumers.poll(); idle != null; idle = idleConsumers.poll()) {
+        if (idle.isOpen()) {
+          return idle;
+        }
+      }
       try {
-        Channel channel = connection.createChannel();
+        Channel channel = consumeConnection.createChannel();
         channel.setDefaultConsumer(defaultConsumer);
         confirmListeners.forEach(channel::addConfirmListener);
         return channel;
@@ -192,13 +249,13 @@ public class MultiPlexingConnection implements DefaultConnection.Decorator {
 
     @Override
     public void notifyListeners() {
-      consumerTags.values().forEach(Channel::notifyListeners);
+      consumerChannels().forEach(Channel::notifyListeners);
     }
 
     @Override
     public boolean removeConfirmListener(ConfirmListener listener) {
       if (confirmListeners.remove(listener)) {
-        return consumerTags.values().stream().allMatch(c -> c.removeConfirmListener(listener));
+        return consumerChannels().stream().allMatch(c -> c.removeConfirmListener(listener));
       } else {
         return false;
       }
@@ -207,23 +264,51 @@ public class MultiPlexingConnection implements DefaultConnection.Decorator {
     @Override
     public void setDefaultConsumer(com.rabbitmq.client.Consumer consumer) {
       this.defaultConsumer = consumer;
-      consumerTags.values().forEach(c -> c.setDefaultConsumer(consumer));
+      consumerChannels().forEach(c -> c.setDefaultConsumer(consumer));
     }
   }
 
   private final Connection delegate;
+  private final Connection consumeDelegate;
+  private final int maxConsumersPerChannel;
 
   public MultiPlexingConnection(Connection delegate) {
+    this(delegate, 1);
+  }
+
+  /**
+   * @param delegate the connection to multiplex
+   * @param maxConsumersPerChannel how many consumers of a channel share one AMQP channel at most
+   */
+  public MultiPlexingConnection(Connection delegate, int maxConsumersPerChannel) {
+    this(delegate, delegate, maxConsumersPerChannel);
+  }
+
+  /**
+   * @param delegate the connection used for publishing and topology operations
+   * @param consumeDelegate the connection used for consumers, may be the same as delegate
+   * @param maxConsumersPerChannel how many consumers of a channel share one AMQP channel at most
+   */
+  public MultiPlexingConnection(
+      Connection delegate, Connection consumeDelegate, int maxConsumersPerChannel) {
     this.delegate = requireNonNull(delegate);
+    this.consumeDelegate = requireNonNull(consumeDelegate);
+    this.maxConsumersPerChannel = maxConsumersPerChannel;
   }
 
   @Override
   public Channel createChannel(int channelNumber) throws IOException {
-    return new MultiPlexingChannel(delegate, channelNumber);
+    return new MultiPlexingChannel(
+        delegate, consumeDelegate, channelNumber, maxConsumersPerChannel);
   }
 
   @Override
   public <R> R delegateMap(Function<Connection, ? extends R> con) {
-    return con.apply(delegate);
+    R result = con.apply(delegate);
+    if (consumeDelegate != delegate) {
+      R consumeResult = con.apply(consumeDelegate);
+      result = result != null ? result : consumeResult;
+    }
+    return result;
   }
 }
@@ -0,0 +1,244 @@
+package com.xing.beetle.amqp;
+
+import static java.util.Objects.requireNonNull;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Consumer;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.ShutdownSignalException;
+import com.xing.beetle.util.ThreadPerTaskExecutor;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * PartitionedConsumer hands the deliveries to the wrapped consumer on several serial lanes. The
+ * lane of a message is picked by a key (the routing key, the message id or a header), so messages
+ * with different keys are handled in parallel while messages with the same key are handled in the
+ * order of delivery. Messages without the key share the first lane.
+ *
+ * <p>Without lanes each message is handed to a thread of its own, see {@link #unordered}.
+ *
+ * <p>As messages are completed out of order, a multiple acknowledgement must not include messages
+ * still waiting or being handled on other lanes, see {@link #isPending}. Cancel and shutdown
+ * notifications are passed on once the messages delivered before them are handled.
+ */
+class PartitionedConsumer implements Consumer {
+
+  private static final Logger log = LoggerFactory.getLogger(PartitionedConsumer.class);
+
+  static final String ROUTING_KEY = "routing_key";
+  static final String MESSAGE_ID = "message_id";
+  static final String HEADER_PREFIX = "header:";
+
+  /** FailureHandler is told about the exceptions the wrapped consumer throws on a lane. */
+  interface FailureHandler {
+
+    void handleConsumerException(String consumerTag, Envelope envelope, Throwable error);
+  }
+
+  /** Lane runs its tasks one after another on the threads of the given executor. */
+  private static class Lane implements Executor {
+
+    private final Executor executor;
+    private final Queue<Runnable> tasks;
+    private boolean running;
+
+    Lane(Executor executor) {
+      this.executor = executor;
+      this.tasks = new ArrayDeque<>();
+    }
+
+    @Override
+    public synchronized void execute(Runnable task) {
+      tasks.add(task);
+      if (!running) {
+        running = true;
+        executor.execute(this::drain);
+      }
+    }
+
+    private void drain() {
+      while (true) {
+        Runnable task;
+        synchronized (this) {
+          task = tasks.poll();
+          if (task == null) {
+            running = false;
+            return;
+          }
+        }
+        task.run();
+      }
+    }
+  }
+
+  private final Consumer delegate;
+  private final String key;
+  private final Executor[] lanes;
+  private final FailureHandler failureHandler;
+  // delivery tags of the messages waiting on a lane or being handled
+  private final Set<Long> pending;
+  // cancel and shutdown notifications held back until the pending messages are handled
+  private final List<Runnable> afterPending;
+
+  /**
+   * @param lanes number of lanes
+   * @param key what messages are partitioned by: "routing_key", "message_id" or "header:" followed
+   *     by the name of a header
+   */
+  PartitionedConsumer(Consumer delegate, int lanes, String key) {
+    this(
+        delegate,
+        lanes,
+        key,
+        (consumerTag, envelope, e) ->
+            log.error("Beetle: consumer {} failed to handle a delivery", consumerTag, e));
+  }
+
+  /** @param failureHandler handles the exceptions of the wrapped consumer */
+  PartitionedConsumer(Consumer delegate, int lanes, String key, FailureHandler failureHandler) {
+    this(delegate, lanes, key, failureHandler, ThreadPerTaskExecutor.get());
+  }
+
+  PartitionedConsumer(
+      Consumer delegate, int lanes, String key, FailureHandler failureHandler, Executor executor) {
+    this.delegate = requireNonNull(delegate);
+    this.key = checkKey(key);
+    this.lanes = new Lane[Math.max(1, lanes)];
+    for (int i = 0; i < this.lanes.length; i++) {
+      this.lanes[i] = new Lane(executor);
+    }
+    this.failureHandler = requireNonNull(failureHandler);
+    this.pending = new ConcurrentSkipListSet<>();
+    this.afterPending = new ArrayList<>();
+  }
+
+  private PartitionedConsumer(Consumer delegate, FailureHandler failureHandler, Executor executor) {
+    this.delegate = requireNonNull(delegate);
+    this.key = MESSAGE_ID;
+    this.lanes = new Executor[] {requireNonNull(executor)};
+    this.failureHandler = requireNonNull(failureHandler);
+    this.pending = new ConcurrentSkipListSet<>();
+    this.afterPending = new ArrayList<>();
+  }
+
+  /** @return a consumer handling each message on a thread of its own, in no particular order */
+  static PartitionedConsumer unordered(Consumer delegate, FailureHandler failureHandler) {
+    return unordered(delegate, failureHandler, ThreadPerTaskExecutor.get());
+  }
+
+  static PartitionedConsumer unordered(
+      Consumer delegate, FailureHandler failureHandler, Executor executor) {
+    return new PartitionedConsumer(delegate, failureHandler, executor);
+  }
+
+  /** @throws IllegalArgumentException if messages can't be partitioned by the given key */
+  static String checkKey(String key) {
+    requireNonNull(key);
+    if (!ROUTING_KEY.equals(key)
+        && !MESSAGE_ID.equals(key)
+        && !(key.startsWith(HEADER_PREFIX) && key.length() > HEADER_PREFIX.length())) {
+      throw new IllegalArgumentException(
+          String.format(
+              "Unknown handler lane key '%s', expected %s, %s or %s followed by a header name",
+              key, ROUTING_KEY, MESSAGE_ID, HEADER_PREFIX));
+    }
+    return key;
+  }
+
+  /** @return whether the message is still waiting on a lane or being handled */
+  boolean isPending(long deliveryTag) {
+    return pending.contains(deliveryTag);
+  }
+
+  @Override
+  public void handleDelivery(
+      String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) {
+    Object partition = keyOf(envelope, properties);
+    int lane = partition != null ? Math.floorMod(partition.hashCode(), lanes.length) : 0;
+    pending.add(envelope.getDeliveryTag());
+    lanes[lane].execute(
+        () -> {
+          try {
+            delegate.handleDelivery(consumerTag, envelope, properties, body);
+          } catch (Throwable e) {
+            // like the dispatcher of the amqp client, which catches everything as well
+            failureHandler.handleConsumerException(consumerTag, envelope, e);
+          } finally {
+            pending.remove(envelope.getDeliveryTag());
+            runAfterPending();
+          }
+        });
+  }
+
+  /** Runs the notification once the messages pending now are handled, like a plain consumer. */
+  private void afterPending(Runnable notification) {
+    synchronized (afterPending) {
+      if (!pending.isEmpty()) {
+        afterPending.add(notification);
+        return;
+      }
+    }
+    notification.run();
+  }
+
+  private void runAfterPending() {
+    List<Runnable> due;
+    synchronized (afterPending) {
+      if (!pending.isEmpty() || afterPending.isEmpty()) {
+        return;
+      }
+      due = new ArrayList<>(afterPending);
+      afterPending.clear();
+    }
+    due.forEach(Runnable::run);
+  }
+
+  private Object keyOf(Envelope envelope, AMQP.BasicProperties properties) {
+    if (ROUTING_KEY.equals(key)) {
+      return envelope.getRoutingKey();
+    } else if (properties == null) {
+      return null;
+    } else if (MESSAGE_ID.equals(key)) {
+      return properties.getMessageId();
+    } else {
+      Map<String, Object> headers = properties.getHeaders();
+      // header values are LongStrings or Numbers, both with a content based hash code
+      return headers != null ? headers.get(key.substring(HEADER_PREFIX.length())) : null;
+    }
+  }
+
+  @Override
+  public void handleConsumeOk(String consumerTag) {
+    delegate.handleConsumeOk(consumerTag);
+  }
+
+  @Override
+  public void handleCancelOk(String consumerTag) {
+    afterPending(() -> delegate.handleCancelOk(consumerTag));
+  }
+
+  @Override
+  public void handleCancel(String consumerTag) throws IOException {
+    delegate.handleCancel(consumerTag);
+  }
+
+  @Override
+  public void handleShutdownSignal(String consumerTag, ShutdownSignalException sig) {
+    afterPending(() -> delegate.handleShutdownSignal(consumerTag, sig));
+  }
+
+  @Override
+  public void handleRecoverOk(String consumerTag) {
+    delegate.handleRecoverOk(consumerTag);
+  }
+}
@@ -0,0 +1,172 @@
+package com.xing.beetle.amqp;
+
+import static java.util.Objects.requireNonNull;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.xing.beetle.util.ExceptionSupport;
+import com.xing.beetle.util.RetryExecutor;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * PolicyPublisher publishes the policy options of declared queues in the background, so that
+ * declaring a queue does not wait for it. Payloads for the same queue are coalesced, pending
+ * payloads are published in batches on a channel of their own and retried with a backoff if
+ * publishing fails or the broker does not confirm them within the policy publish timeout. Each
+ * publisher belongs to one connection and publishes on a thread of its own, which is stopped when
+ * the connection is closed.
+ */
+class PolicyPublisher {
+
+  private static final Logger log = LoggerFactory.getLogger(PolicyPublisher.class);
+
+  // collects the payloads of queues declared in short succession into one batch
+  private static final long BATCH_DELAY_MILLIS = 50;
+
+  // the publishing thread is released when there is nothing to publish for a while
+  private static final long IDLE_SECONDS = 60;
+
+  private final Connection connection;
+  private final BeetleAmqpConfiguration beetleAmqpConfiguration;
+  private final RetryExecutor.Backoff backoff;
+  private final Map<String, String> pending;
+  private final Map<String, String> published;
+  // publishing waits while a broker throttles publishers, so each connection has a thread of its
+  // own
+  private final ScheduledThreadPoolExecutor scheduler;
+  private Channel channel;
+  private boolean scheduled;
+  private int attempt;
+  private boolean closed;
+
+  PolicyPublisher(Connection connection, BeetleAmqpConfiguration beetleAmqpConfiguration) {
+    this(connection, beetleAmqpConfiguration, RetryExecutor.Backoff.DEFAULT);
+  }
+
+  PolicyPublisher(
+      Connection connection,
+      BeetleAmqpConfiguration beetleAmqpConfiguration,
+      RetryExecutor.Backoff backoff) {
+    this.connection = requireNonNull(connection);
+    this.beetleAmqpConfiguration = requireNonNull(beetleAmqpConfiguration);
+    this.backoff = requireNonNull(backoff);
+    this.pending = new LinkedHashMap<>();
+    this.published = new HashMap<>();
+    this.scheduler =
+        new ScheduledThreadPoolExecutor(
+            1, BeetleConnectionFactory.daemonThreads("beetle-policy-publisher-"));
+    this.scheduler.setKeepAliveTime(IDLE_SECONDS, TimeUnit.SECONDS);
+    this.scheduler.allowCoreThreadTimeOut(true);
+  }
+
+  /** Queues the payload for publishing unless the same payload was published for the queue. */
+  synchronized void publish(String queue, String payload) {
+    if (closed || payload.equals(published.get(queue))) {
+      return;
+    }
+    pending.put(queue, payload);
+    schedule(BATCH_DELAY_MILLIS);
+  }
+
+  /** Forgets the published payloads, e.g. because the broker might have lost them. */
+  synchronized void reset() {
+    published.clear();
+  }
+
+  /**
+   * Discards the pending payloads, stops the publishing thread and closes the channel, as the
+   * connection is being closed.
+   */
+  void close() {
+    Channel ch;
+    synchronized (this) {
+      closed = true;
+      pending.clear();
+      ch = channel;
+      channel = null;
+    }
+    scheduler.shutdownNow();
+    if (ch != null && ch.isOpen()) {
+      ExceptionSupport.Consumer<Channel> closing = Channel::close;
+      closing
+          .executeAndCatch(ch)
+          .ifPresent(e -> log.debug("Beetle: failed to close the policy channel", e));
+    }
+  }
+
+  private void schedule(long delayMillis) {
+    if (!scheduled) {
+      scheduled = true;
+      scheduler.schedule(this::flush, delayMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void flush() {
+    Map<String, String> batch;
+    synchronized (this) {
+      scheduled = false;
+      if (closed) {
+        return;
+      }
+      batch = new LinkedHashMap<>(pending);
+      pending.clear();
+    }
+    try {
+      Channel ch = channel();
+      for (Map.Entry<String, String> entry : batch.entrySet()) {
+        ch.basicPublish(
+            beetleAmqpConfiguration.getBeetlePolicyExchangeName(),
+            beetleAmqpConfiguration.getBeetlePolicyUpdatesRoutingKey(),
+            null,
+            entry.getValue().getBytes(StandardCharsets.UTF_8));
+      }
+      // closes the channel if the broker does not confirm in time, the next attempt opens a new one
+      ch.waitForConfirmsOrDie(
+          TimeUnit.SECONDS.toMillis(beetleAmqpConfiguration.getPolicyPublishTimeoutSeconds()));
+      synchronized (this) {
+        published.putAll(batch);
+        attempt = 0;
+      }
+    } catch (IOException | TimeoutException | RuntimeException e) {
+      retry(batch, e);
+    } catch (InterruptedException e) {
+      // the publisher is being closed
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private synchronized void retry(Map<String, String> unpublished, Exception error) {
+    if (closed) {
+      return;
+    }
+    long delay = backoff.delayInMillis(attempt++, error);
+    if (delay < 0) {
+      // payloads queued in the meantime are not part of the failed batch and are still published
+      log.warn("Beetle: giving up publishing policy options for {}", unpublished.keySet(), error);
+      attempt = 0;
+    } else {
+      log.debug("Beetle: publishing policy options failed, retrying in {} ms", delay, error);
+      // payloads queued in the meantime are newer
+      unpublished.forEach(pending::putIfAbsent);
+      schedule(delay);
+    }
+  }
+
+  private synchronized Channel channel() throws IOException {
+    if (channel == null || !channel.isOpen()) {
+      Channel ch = connection.createChannel();
+      ch.confirmSelect();
+      channel = ch;
+    }
+    return channel;
+  }
+}
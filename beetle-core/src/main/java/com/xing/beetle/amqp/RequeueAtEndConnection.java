@@ -1,5 +1,7 @@
 package com.xing.beetle.amqp;
 
+import static java.util.Objects.requireNonNull;
+
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.rabbitmq.client.*;
 import com.rabbitmq.client.AMQP.BasicProperties;
@@ -9,25 +11,38 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
 
-import static java.util.Objects.requireNonNull;
-
-public class RequeueAtEndConnection implements DefaultConnection.Decorator {
+public class RequeueAtEndConnection implements DefaultConnection.Decorator, RecoveryListener {
 
   private static final Logger log = LoggerFactory.getLogger(RequeueAtEndConnection.class);
   private ObjectMapper objectMapper = new ObjectMapper();
 
+  private static class QueueDeclaration {
+
+    private final List<Object> parameters;
+    private final AMQP.Queue.DeclareOk ok;
+
+    QueueDeclaration(List<Object> parameters, AMQP.Queue.DeclareOk ok) {
+      this.parameters = parameters;
+      this.ok = ok;
+    }
+  }
+
   private class RequeueAtEndChannel implements DefaultChannel.Decorator {
 
     private static final String DEAD_LETTER_SUFFIX = "_dead_letter";
 
     private final Channel delegate;
     private final SortedSet<Long> deadLetterDeliveryTags;
+    // the queue of each consumer, whose declaration is forgotten once the consumer is cancelled
+    private final Map<String, String> consumedQueues;
 
     RequeueAtEndChannel(Channel delegate) {
       this.delegate = requireNonNull(delegate);
       this.deadLetterDeliveryTags = new ConcurrentSkipListSet<>();
+      this.consumedQueues = new ConcurrentHashMap<>();
     }
 
     @Override
@@ -78,8 +93,22 @@ public class RequeueAtEndConnection implements DefaultConnection.Decorator {
                   callback.handleShutdownSignal(consumerTag, sig);
                 }
               };
-      return delegate.basicConsume(
-          queue, autoAck, consumerTag, noLocal, exclusive, arguments, consumer);
+      String tag =
+          delegate.basicConsume(
+              queue, autoAck, consumerTag, noLocal, exclusive, arguments, consumer);
+      if (tag != null) {
+        consumedQueues.put(tag, queue);
+      }
+      return tag;
+    }
+
+    @Override
+    public void basicCancel(String consumerTag) throws IOException {
+      String queue = consumedQueues.remove(consumerTag);
+      if (queue != null) {
+        declaredQueues.remove(queue);
+      }
+      delegate.basicCancel(consumerTag);
     }
 
     @Override
@@ -95,6 +124,14 @@ public class RequeueAtEndConnection implements DefaultConnection.Decorator {
       return response;
     }
 
+    @Override
+    public void basicAck(long deliveryTag, boolean multiple) throws IOException {
+      // forgets acknowledged deliveries of dead letter queues, e.g. expired ones dropped on
+      // delivery
+      deadLettered(deliveryTag, multiple);
+      delegate.basicAck(deliveryTag, multiple);
+    }
+
     @Override
     public void basicNack(long deliveryTag, boolean multiple, boolean requeue) throws IOException {
       boolean deadLettered = deadLettered(deliveryTag, multiple);
@@ -180,6 +217,21 @@ public class RequeueAtEndConnection implements DefaultConnection.Decorator {
         boolean autoDelete,
         Map<String, Object> arguments)
         throws IOException {
+      // server named and exclusive queues are bound to the declaring connection and auto-delete
+      // queues vanish with their last consumer, never cache them
+      boolean cacheable =
+          beetleAmqpConfiguration.isTopologyCacheEnabled()
+              && !queue.isEmpty()
+              && !exclusive
+              && !autoDelete;
+      List<Object> declaration = Arrays.asList(durable, autoDelete, arguments);
+      if (cacheable) {
+        QueueDeclaration cached = declaredQueues.get(queue);
+        if (cached != null && cached.parameters.equals(declaration)) {
+          // the message and consumer counts are those of the first declaration
+          return cached.ok;
+        }
+      }
 
       if (beetleAmqpConfiguration.isDeadLetteringEnabled()) {
         arguments = configureOriginal(arguments, queue);
@@ -193,9 +245,31 @@ public class RequeueAtEndConnection implements DefaultConnection.Decorator {
         }
         queueDeclared(queue);
       }
+      if (!queue.isEmpty() && !exclusive) {
+        for (long delay : delayTiers(beetleAmqpConfiguration)) {
+          delegate.queueDeclare(
+              delayQueueName(queue, delay),
+              durable,
+              false,
+              autoDelete,
+              configureDeadLetter(queue, delay));
+        }
+      }
 
       publishPolicyOptions(queue);
-      return delegate.queueDeclare(queue, durable, exclusive, autoDelete, arguments);
+      AMQP.Queue.DeclareOk ok =
+          delegate.queueDeclare(queue, durable, exclusive, autoDelete, arguments);
+      if (cacheable) {
+        declaredQueues.put(queue, new QueueDeclaration(declaration, ok));
+      }
+      return ok;
+    }
+
+    @Override
+    public AMQP.Queue.DeleteOk queueDelete(String queue, boolean ifUnused, boolean ifEmpty)
+        throws IOException {
+      declaredQueues.remove(queue);
+      return delegate.queueDelete(queue, ifUnused, ifEmpty);
     }
 
     void publishPolicyOptions(String queue) throws IOException {
@@ -213,39 +287,107 @@ public class RequeueAtEndConnection implements DefaultConnection.Decorator {
       payload.setLazy(beetleAmqpConfiguration.isLazyQueuesEnabled());
       payload.setMessage_ttl(beetleAmqpConfiguration.getDeadLetteringMsgTtlMs());
 
-      log.debug(
-          "Beetle: publishing policy options on {}: {}",
-          payload.getServer(),
-          objectMapper.writeValueAsString(payload));
-      delegate.exchangeDeclare(
-          beetleAmqpConfiguration.getBeetlePolicyExchangeName(), BuiltinExchangeType.TOPIC, true);
-      delegate.queueDeclare(
-          beetleAmqpConfiguration.getBeetlePolicyUpdatesQueueName(), true, false, false, null);
-      delegate.queueBind(
-          beetleAmqpConfiguration.getBeetlePolicyUpdatesQueueName(),
-          beetleAmqpConfiguration.getBeetlePolicyExchangeName(),
-          beetleAmqpConfiguration.getBeetlePolicyUpdatesRoutingKey());
-      delegate.basicPublish(
-          beetleAmqpConfiguration.getBeetlePolicyExchangeName(),
-          beetleAmqpConfiguration.getBeetlePolicyUpdatesRoutingKey(),
-          null,
-          objectMapper.writeValueAsString(payload).getBytes());
+      String json = objectMapper.writeValueAsString(payload);
+      log.debug("Beetle: publishing policy options on {}: {}", payload.getServer(), json);
+      if (!policyTopologyDeclared || !beetleAmqpConfiguration.isTopologyCacheEnabled()) {
+        delegate.exchangeDeclare(
+            beetleAmqpConfiguration.getBeetlePolicyExchangeName(), BuiltinExchangeType.TOPIC, true);
+        delegate.queueDeclare(
+            beetleAmqpConfiguration.getBeetlePolicyUpdatesQueueName(), true, false, false, null);
+        delegate.queueBind(
+            beetleAmqpConfiguration.getBeetlePolicyUpdatesQueueName(),
+            beetleAmqpConfiguration.getBeetlePolicyExchangeName(),
+            beetleAmqpConfiguration.getBeetlePolicyUpdatesRoutingKey());
+        policyTopologyDeclared = true;
+      }
+      policyPublisher.publish(queue, json);
     }
   }
 
+  private static final String DELAY_INFIX = "_delay_";
+
   private final Connection delegate;
   private final boolean invertRequeueParameter;
   private final Set<String> deadLetterQueues;
   private final BeetleAmqpConfiguration beetleAmqpConfiguration;
+  // queues declared (and their policies published) on this connection since it was (re)established
+  private final Map<String, QueueDeclaration> declaredQueues;
+  private volatile boolean policyTopologyDeclared;
+  private final PolicyPublisher policyPublisher;
 
   public RequeueAtEndConnection(
       Connection delegate,
       BeetleAmqpConfiguration beetleAmqpConfiguration,
       boolean invertRequeueParameter) {
+    this(delegate, beetleAmqpConfiguration, invertRequeueParameter, ConcurrentHashMap.newKeySet());
+  }
+
+  /**
+   * @param deadLetterQueues the queues declared with a dead letter queue, shared by all connections
+   *     to the same broker since queues might be declared and consumed on different connections
+   */
+  RequeueAtEndConnection(
+      Connection delegate,
+      BeetleAmqpConfiguration beetleAmqpConfiguration,
+      boolean invertRequeueParameter,
+      Set<String> deadLetterQueues) {
     this.beetleAmqpConfiguration = beetleAmqpConfiguration;
     this.delegate = requireNonNull(delegate);
     this.invertRequeueParameter = invertRequeueParameter;
-    this.deadLetterQueues = new HashSet<>();
+    this.deadLetterQueues = requireNonNull(deadLetterQueues);
+    this.declaredQueues = new ConcurrentHashMap<>();
+    this.policyPublisher = new PolicyPublisher(delegate, beetleAmqpConfiguration);
+    if (delegate instanceof Recoverable) {
+      ((Recoverable) delegate).addRecoveryListener(this);
+    }
+  }
+
+  @Override
+  public void handleRecovery(Recoverable recoverable) {
+    // the broker might have lost its topology, so declare everything again
+    declaredQueues.clear();
+    policyTopologyDeclared = false;
+    policyPublisher.reset();
+  }
+
+  @Override
+  public void handleRecoveryStarted(Recoverable recoverable) {}
+
+  /** @return the delays in milliseconds of the configured delay queues in ascending order */
+  static List<Long> delayTiers(BeetleAmqpConfiguration beetleAmqpConfiguration) {
+    String tiers = beetleAmqpConfiguration.getDelayQueueTiers();
+    if (tiers == null || tiers.trim().isEmpty()) {
+      return Collections.emptyList();
+    }
+    List<Long> delays = new ArrayList<>();
+    for (String tier : tiers.split(",")) {
+      delays.add(Long.parseLong(tier.trim()));
+    }
+    Collections.sort(delays);
+    return delays;
+  }
+
+  private static String delayQueueName(String queue, long delay) {
+    return queue + DELAY_INFIX + delay;
+  }
+
+  /**
+   * Picks the delay queue for a message which is due after the given delay: the one with the
+   * longest delay not exceeding it. Messages published to it return to the original queue when the
+   * delay of the delay queue expired.
+   *
+   * @return the name of the delay queue or empty if delay queues are disabled or the delay is
+   *     shorter than the shortest one, in which case the message should be requeued directly
+   */
+  public static Optional<String> delayQueue(
+      String queue, long delayMillis, BeetleAmqpConfiguration beetleAmqpConfiguration) {
+    Optional<String> delayQueue = Optional.empty();
+    for (long tier : delayTiers(beetleAmqpConfiguration)) {
+      if (tier <= delayMillis) {
+        delayQueue = Optional.of(delayQueueName(queue, tier));
+      }
+    }
+    return delayQueue;
   }
 
   private void queueDeclared(String queue) {
@@ -254,6 +396,18 @@ public class RequeueAtEndConnection implements DefaultConnection.Decorator {
     }
   }
 
+  @Override
+  public void abort(int closeCode, String closeMessage, int timeout) {
+    policyPublisher.close();
+    delegate.abort(closeCode, closeMessage, timeout);
+  }
+
+  @Override
+  public void close(int closeCode, String closeMessage, int timeout) throws IOException {
+    policyPublisher.close();
+    delegate.close(closeCode, closeMessage, timeout);
+  }
+
   @Override
   public Channel createChannel(int channelNumber) throws IOException {
     Channel channel =
@@ -4,25 +4,99 @@ import static java.util.Objects.requireNonNull;
 
 import com.rabbitmq.client.AMQP.BasicProperties;
 import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
 import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.GetResponse;
 import com.rabbitmq.client.Recoverable;
 import com.rabbitmq.client.RecoverableConnection;
 import com.rabbitmq.client.RecoveryListener;
+import com.rabbitmq.client.ReturnListener;
+import com.rabbitmq.client.ShutdownListener;
+import com.xing.beetle.util.ExceptionSupport;
 import com.xing.beetle.util.ExceptionSupport.Function;
 import com.xing.beetle.util.OrderedPromise;
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+/**
+ * RetryableConnection is a connection which is established asynchronously. Until then, consumer and
+ * topology operations on its channels as well as listener registrations are deferred and applied in
+ * order as soon as the connection is up. Operations which need an answer from the broker fail with
+ * an IOException in the meantime.
+ */
 public class RetryableConnection implements DefaultConnection.Decorator, RecoveryListener {
 
+  private static final Logger LOGGER = LoggerFactory.getLogger(RetryableConnection.class);
+
   private class RetryableChannel implements DefaultChannel.Decorator {
 
-    private final OrderedPromise<Channel> channel;
+    // tail of the deferred operations, completes with the channel once all of them are applied
+    private OrderedPromise<Channel> channel;
+    // the channel once the tail completed, operations are then applied to it directly
+    private volatile Channel resolved;
 
     RetryableChannel(OrderedPromise<Channel> channel) {
       this.channel = requireNonNull(channel);
     }
 
+    private synchronized OrderedPromise<Channel> promise() {
+      return channel;
+    }
+
+    private synchronized void defer(Function<Channel, ?> fn) {
+      channel =
+          channel.thenApply(
+              ch -> {
+                try {
+                  fn.apply(ch);
+                } catch (Exception e) {
+                  // including sneakily thrown IOExceptions, which must not break the chain either
+                  LOGGER.warn("Deferred channel operation failed", e);
+                }
+                return ch;
+              });
+    }
+
+    /** @return the channel if it is established and all deferred operations were applied */
+    private Channel established() {
+      Channel c = resolved;
+      if (c == null && isEstablished()) {
+        c = promise().getNow().orElse(null);
+        resolved = c;
+      }
+      return c;
+    }
+
+    @Override
+    public void abort(int closeCode, String closeMessage) {
+      delegateOrDefer(ch -> ch.abort(closeCode, closeMessage));
+    }
+
+    @Override
+    public void addConfirmListener(ConfirmListener listener) {
+      delegateOrDefer(ch -> ch.addConfirmListener(listener));
+    }
+
+    @Override
+    public void addReturnListener(ReturnListener listener) {
+      delegateOrDefer(ch -> ch.addReturnListener(listener));
+    }
+
+    @Override
+    public void addShutdownListener(ShutdownListener listener) {
+      delegateOrDefer(ch -> ch.addShutdownListener(listener));
+    }
+
+    @Override
+    public GetResponse basicGet(String queue, boolean autoAck) throws IOException {
+      Channel c = established();
+      return c != null ? c.basicGet(queue, autoAck) : null;
+    }
+
     @Override
     public void basicPublish(
         String exchange,
@@ -32,30 +106,113 @@ public class RetryableConnection implements DefaultConnection.Decorator, Recover
         BasicProperties props,
         byte[] body)
         throws IOException {
-      Channel c =
-          channel.getNow().orElseThrow(() -> new IOException("Connection not yet established"));
+      Channel c = established();
+      if (c == null) {
+        throw notEstablished();
+      }
       c.basicPublish(exchange, routingKey, mandatory, immediate, props, body);
     }
 
+    @Override
+    public void close(int closeCode, String closeMessage) throws IOException, TimeoutException {
+      delegateOrDefer(ch -> ch.close(closeCode, closeMessage));
+    }
+
     @Override
     public <R> R delegateMap(Type type, Function<Channel, ? extends R> fn) {
-      return channel.thenApply(fn).join();
+      Channel c = established();
+      if (c != null) {
+        return fn.apply(c);
+      } else if (type == Type.CONSUME || type == Type.TOPOLOGY) {
+        defer(fn);
+        return null;
+      } else if (isEstablished()) {
+        return promise().thenApply(fn).join();
+      } else {
+        return ExceptionSupport.sneakyThrow(notEstablished());
+      }
+    }
+
+    private void delegateOrDefer(ExceptionSupport.Consumer<Channel> fn) {
+      Channel c = established();
+      if (c != null) {
+        fn.accept(c);
+      } else {
+        defer(
+            ch -> {
+              fn.accept(ch);
+              return null;
+            });
+      }
+    }
+
+    @Override
+    public long consumerCount(String queue) throws IOException {
+      Channel c = established();
+      return c != null ? c.consumerCount(queue) : 0;
+    }
+
+    @Override
+    public Connection getConnection() {
+      return RetryableConnection.this;
     }
 
     @Override
     public boolean isOpen() {
       return RetryableConnection.this.isOpen();
     }
+
+    @Override
+    public long messageCount(String queue) throws IOException {
+      Channel c = established();
+      return c != null ? c.messageCount(queue) : 0;
+    }
+
+    @Override
+    public void removeShutdownListener(ShutdownListener listener) {
+      delegateOrDefer(ch -> ch.removeShutdownListener(listener));
+    }
   }
 
-  private final OrderedPromise<RecoverableConnection> connection;
+  private final OrderedPromise<Connection> connection;
+  // the connection once established, used directly instead of chaining on the promise
+  private volatile Connection resolved;
 
   private volatile boolean active;
 
   public RetryableConnection(CompletionStage<RecoverableConnection> connection) {
-    this.connection = OrderedPromise.of(connection);
-    connection.thenAccept(c -> c.addRecoveryListener(this));
-    connection.thenAccept(c -> active = c.isOpen());
+    this(connection, c -> c);
+  }
+
+  /**
+   * @param connection the connection being established
+   * @param decorator applied to the established connection, e.g. to add further decorators
+   */
+  public RetryableConnection(
+      CompletionStage<RecoverableConnection> connection,
+      Function<? super RecoverableConnection, ? extends Connection> decorator) {
+    // a single stage, so that the connection is decorated and active once it completes
+    this.connection =
+        OrderedPromise.of(
+            connection.thenApply(
+                c -> {
+                  Connection decorated = decorator.apply(c);
+                  c.addRecoveryListener(this);
+                  active = c.isOpen();
+                  return decorated;
+                }));
+  }
+
+  /**
+   * @return a stage which completes once the connection is established, i.e. decorated and ready to
+   *     be used, or fails if it could not be established
+   */
+  public CompletionStage<Connection> whenEstablished() {
+    return connection.toStage();
+  }
+
+  private static IOException notEstablished() {
+    return new IOException("Connection not yet established");
   }
 
   @Override
@@ -65,9 +222,44 @@ public class RetryableConnection implements DefaultConnection.Decorator, Recover
             con -> channelNumber >= 0 ? con.createChannel(channelNumber) : con.createChannel()));
   }
 
+  /**
+   * Applies the function to the connection if it is established. Otherwise the function is applied
+   * as soon as the connection is established and null is returned.
+   */
   @Override
   public <R> R delegateMap(Function<Connection, ? extends R> con) {
-    return connection.thenApply(con).join();
+    if (isEstablished()) {
+      return con.apply(resolved);
+    }
+    connection.thenApply(con).toStage().exceptionally(e -> logDeferredFailure(e));
+    return null;
+  }
+
+  private <R> R requireEstablished(Function<Connection, R> fn) {
+    if (!isEstablished()) {
+      return ExceptionSupport.sneakyThrow(notEstablished());
+    }
+    return fn.apply(resolved);
+  }
+
+  @Override
+  public int getChannelMax() {
+    return requireEstablished(Connection::getChannelMax);
+  }
+
+  @Override
+  public int getFrameMax() {
+    return requireEstablished(Connection::getFrameMax);
+  }
+
+  @Override
+  public int getHeartbeat() {
+    return requireEstablished(Connection::getHeartbeat);
+  }
+
+  @Override
+  public int getPort() {
+    return requireEstablished(Connection::getPort);
   }
 
   @Override
@@ -80,8 +272,28 @@ public class RetryableConnection implements DefaultConnection.Decorator, Recover
     active = false;
   }
 
+  /** @return true if the connection has been established (it might be recovering though) */
+  public boolean isEstablished() {
+    if (resolved != null) {
+      return true;
+    }
+    CompletableFuture<Connection> future = connection.toStage().toCompletableFuture();
+    if (future.isDone() && !future.isCompletedExceptionally()) {
+      resolved = future.join();
+      return true;
+    }
+    return false;
+  }
+
   @Override
   public boolean isOpen() {
     return active;
   }
+
+  private <R> R logDeferredFailure(Throwable e) {
+    if (isEstablished()) {
+      LOGGER.warn("Deferred connection operation failed", e);
+    }
+    return null;
+  }
 }
@@ -0,0 +1,60 @@
+package com.xing.beetle.amqp;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.xing.beetle.util.ExceptionSupport.Function;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * StripedConnection spreads the channels to one broker across several connections, each with its
+ * own socket and reader thread. A channel is opened on the connection picked by the calling thread,
+ * so a thread keeps publishing through the same connection.
+ */
+public class StripedConnection implements DefaultConnection.Decorator {
+
+  private final List<Connection> stripes;
+
+  public StripedConnection(List<? extends Connection> stripes) {
+    if (stripes.isEmpty()) {
+      throw new IllegalArgumentException("At least one connection is required");
+    }
+    this.stripes = new ArrayList<>(stripes);
+  }
+
+  @Override
+  public Channel createChannel(int channelNumber) throws IOException {
+    Connection stripe = stripe();
+    return channelNumber >= 0 ? stripe.createChannel(channelNumber) : stripe.createChannel();
+  }
+
+  @Override
+  public <R> R delegateMap(Function<Connection, ? extends R> fn) {
+    R result = null;
+    for (Connection stripe : stripes) {
+      R r = fn.apply(stripe);
+      if (result == null) {
+        result = r;
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public boolean isOpen() {
+    return stripes.stream().anyMatch(Connection::isOpen);
+  }
+
+  /** @return the connection of the calling thread or the next open one */
+  private Connection stripe() {
+    int start = (int) (Thread.currentThread().getId() % stripes.size());
+    for (int i = 0; i < stripes.size(); i++) {
+      Connection stripe = stripes.get((start + i) % stripes.size());
+      if (stripe.isOpen()) {
+        return stripe;
+      }
+    }
+    return stripes.get(start);
+  }
+}
@@ -0,0 +1,19 @@
+package com.xing.beetle.dedup.api;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * MessageListener receiving a whole batch of (deduplicated) messages at once. Dropped and failed
+ * messages are still reported one by one.
+ */
+@FunctionalInterface
+public interface BatchMessageListener<M> extends MessageListener<M> {
+
+  @Override
+  default void onMessage(M message) throws Throwable {
+    onMessages(Collections.singletonList(message));
+  }
+
+  void onMessages(List<M> messages) throws Throwable;
+}
@@ -16,9 +16,11 @@ public interface MessageListener<M> {
   }
 
   default Logger logger() {
+    // lambdas are hidden classes without a canonical name on recent JVMs
     String canonical = getClass().getCanonicalName();
-    int offset = canonical.indexOf("$$Lambda$");
-    String loggerName = offset > 0 ? canonical.substring(0, offset) : canonical;
+    String name = canonical != null ? canonical : getClass().getName();
+    int offset = name.indexOf("$$Lambda$");
+    String loggerName = offset > 0 ? name.substring(0, offset) : name;
     return System.getLogger(loggerName);
   }
 
@@ -1,14 +1,30 @@
 package com.xing.beetle.dedup.spi;
 
 import com.xing.beetle.amqp.BeetleAmqpConfiguration;
+import com.xing.beetle.dedup.api.BatchMessageListener;
 import com.xing.beetle.dedup.api.Interruptable;
 import com.xing.beetle.dedup.api.MessageListener;
 import com.xing.beetle.util.ExceptionSupport;
+import com.xing.beetle.util.ThreadPerTaskExecutor;
 
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
 
 /**
  * This interface provides an implementation for deduplication logic which also takes care of
@@ -42,6 +58,11 @@ public interface Deduplicator {
 
   void setDelay(String messageId, long timestamp);
 
+  /** @return the milliseconds until the handler execution is no longer delayed */
+  default long remainingDelay(String messageId) {
+    return 0;
+  }
+
   long incrementAttempts(String messageId);
 
   long incrementExceptions(String messageId);
@@ -52,8 +73,58 @@ public interface Deduplicator {
 
   BeetleAmqpConfiguration getBeetleAmqpConfiguration();
 
+  /** @return the locks serializing the copies of a message handled by this deduplicator */
+  LocalMutexes getLocalMutexes();
+
+  // bulk variants used for batches, implementations should override them to save round trips
+
+  /** @return the subset of the given message ids which are completed */
+  default Set<String> completed(Collection<String> messageIds) {
+    return messageIds.stream()
+        .filter(this::completed)
+        .collect(Collectors.toCollection(LinkedHashSet::new));
+  }
+
+  /** @return the subset of the given message ids whose handler execution is delayed */
+  default Set<String> delayed(Collection<String> messageIds) {
+    return messageIds.stream()
+        .filter(this::delayed)
+        .collect(Collectors.toCollection(LinkedHashSet::new));
+  }
+
+  /** @return the subset of the given message ids for which the mutex was acquired */
+  default Set<String> tryAcquireMutexes(Collection<String> messageIds, int secondsToExpire) {
+    return messageIds.stream()
+        .filter(id -> tryAcquireMutex(id, secondsToExpire))
+        .collect(Collectors.toCollection(LinkedHashSet::new));
+  }
+
+  default void releaseMutexes(Collection<String> messageIds) {
+    messageIds.forEach(this::releaseMutex);
+  }
+
+  default void complete(Collection<String> messageIds) {
+    messageIds.forEach(this::complete);
+  }
+
+  /** @return the incremented number of attempts by message id */
+  default Map<String, Long> incrementAttempts(Collection<String> messageIds) {
+    Map<String, Long> attempts = new LinkedHashMap<>();
+    messageIds.forEach(id -> attempts.put(id, incrementAttempts(id)));
+    return attempts;
+  }
+
   default <M> void runHandler(
       M message, MessageListener<M> listener, MessageAdapter<M> adapter, Duration timeout) {
+    if (getBeetleAmqpConfiguration().isHandlerThreadPerMessage()) {
+      if (!runOnOwnThread(listener, message, timeout)) {
+        listener.onFailure(
+            message,
+            String.format("Beetle: message handling timed out for %s", adapter.keyOf(message)));
+        ExceptionSupport.sneakyThrow(new TimeoutException("message handling timed out"));
+      }
+      return;
+    }
     Interruptable<M> interruptable = new Interruptable<>(listener);
     // Schedule an interruption for the execution of the handler when the timeout is expired
     CompletableFuture.delayedExecutor(timeout.toMillis(), TimeUnit.MILLISECONDS)
@@ -71,7 +142,201 @@ public interface Deduplicator {
     }
   }
 
+  default <M> void runBatchHandler(
+      List<M> messages,
+      BatchMessageListener<M> listener,
+      MessageAdapter<M> adapter,
+      Duration timeout) {
+    if (getBeetleAmqpConfiguration().isHandlerThreadPerMessage()) {
+      if (!runOnOwnThread(listener::onMessages, messages, timeout)) {
+        messages.forEach(
+            message ->
+                listener.onFailure(
+                    message,
+                    String.format(
+                        "Beetle: message handling timed out for %s", adapter.keyOf(message))));
+        ExceptionSupport.sneakyThrow(new TimeoutException("message handling timed out"));
+      }
+      return;
+    }
+    Interruptable<List<M>> interruptable = new Interruptable<>(listener::onMessages);
+    // Schedule an interruption for the execution of the handler when the timeout is expired
+    CompletableFuture.delayedExecutor(timeout.toMillis(), TimeUnit.MILLISECONDS)
+        .execute(interruptable::interruptTimedOutAndRethrow);
+    try {
+      interruptable.onMessage(messages);
+    } catch (Throwable throwable) {
+      if (throwable.getCause() != null && throwable.getCause() instanceof InterruptedException) {
+        messages.forEach(
+            message ->
+                listener.onFailure(
+                    message,
+                    String.format(
+                        "Beetle: message handling timed out for %s", adapter.keyOf(message))));
+      }
+      ExceptionSupport.sneakyThrow(throwable);
+    }
+  }
+
+  /**
+   * Handles a batch of messages like {@link #handle} but passes all messages due for handling to
+   * the listener at once. The status of the messages is resolved with the bulk operations, the
+   * outcome (drop, requeue or retry) is applied to each message individually. Redundant copies of a
+   * message within the same batch are handled once and dropped or requeued together with the
+   * original.
+   */
+  default <M> void handleBatch(
+      List<M> messages, MessageAdapter<M> adapter, BatchMessageListener<M> listener) {
+    List<M> storeFree = new ArrayList<>();
+    Map<String, M> candidates = new LinkedHashMap<>();
+    List<M> copies = new ArrayList<>();
+    for (M message : messages) {
+      if (isExpired(message, adapter)) {
+        dropMessage(
+            message,
+            adapter,
+            listener,
+            String.format("Beetle: ignored expired message %s", adapter.keyOf(message)));
+      } else if (canSkipStore(message, adapter)) {
+        storeFree.add(message);
+      } else if (candidates.putIfAbsent(adapter.keyOf(message), message) != null) {
+        copies.add(message);
+      }
+    }
+
+    // keys which are finished, i.e. won't be seen by the handler again
+    Set<String> done = new HashSet<>();
+    List<String> keys = new ArrayList<>(candidates.keySet());
+    Set<String> completed = keys.isEmpty() ? Collections.emptySet() : completed(keys);
+    keys.removeAll(completed);
+    Set<String> locked =
+        keys.isEmpty()
+            ? Collections.emptySet()
+            : tryAcquireMutexes(keys, getBeetleAmqpConfiguration().getMutexExpiration());
+    keys.stream()
+        .filter(key -> !locked.contains(key))
+        .map(candidates::get)
+        .forEach(adapter::requeue);
+    keys.retainAll(locked);
+    if (!keys.isEmpty()) {
+      completed = new HashSet<>(completed);
+      completed.addAll(completed(keys));
+      keys.removeAll(completed);
+    }
+    for (String key : completed) {
+      dropMessage(
+          candidates.get(key),
+          adapter,
+          listener,
+          String.format("Beetle: ignored completed message %s", key));
+      done.add(key);
+    }
+    Set<String> delayed = keys.isEmpty() ? Collections.emptySet() : delayed(keys);
+    delayed.forEach(key -> adapter.requeueDelayed(candidates.get(key), () -> remainingDelay(key)));
+    keys.removeAll(delayed);
+
+    Map<String, Long> attempts = keys.isEmpty() ? Collections.emptyMap() : incrementAttempts(keys);
+    long maxAttempts = getBeetleAmqpConfiguration().getMaxHandlerExecutionAttempts();
+    List<String> due = new ArrayList<>();
+    attempts.forEach(
+        (key, attempt) -> {
+          if (attempt > maxAttempts) {
+            failureNotification(
+                candidates.get(key),
+                adapter,
+                listener,
+                String.format(
+                    "Beetle: reached the handler execution attempts limit: %d on %s",
+                    maxAttempts, key));
+            done.add(key);
+          } else {
+            due.add(key);
+          }
+        });
+
+    Throwable failure = null;
+    boolean retry = false;
+    if (!storeFree.isEmpty() || !due.isEmpty()) {
+      List<M> batch = new ArrayList<>(storeFree);
+      due.stream().map(candidates::get).forEach(batch::add);
+      try {
+        runBatchHandler(
+            batch,
+            listener,
+            adapter,
+            Duration.ofSeconds(getBeetleAmqpConfiguration().getHandlerTimeoutSeconds()));
+        if (!due.isEmpty()) {
+          complete(due);
+        }
+        due.forEach(key -> cleanUp(candidates.get(key), adapter));
+        done.addAll(due);
+      } catch (Throwable throwable) {
+        failure = throwable;
+        for (M message : storeFree) {
+          adapter.drop(message);
+          listener.onFailure(
+              message,
+              String.format(
+                  "Beetle: reached the handler execution attempts limit: %d on %s",
+                  maxAttempts, adapter.keyOf(message)));
+        }
+        for (String key : due) {
+          if (retryOrFail(candidates.get(key), adapter, listener, attempts.get(key))) {
+            retry = true;
+          } else {
+            done.add(key);
+          }
+        }
+      } finally {
+        if (!due.isEmpty()) {
+          releaseMutexes(due);
+        }
+      }
+    }
+
+    for (M copy : copies) {
+      if (done.contains(adapter.keyOf(copy))) {
+        dropMessage(
+            copy,
+            adapter,
+            listener,
+            String.format("Beetle: ignored completed message %s", adapter.keyOf(copy)));
+      } else {
+        adapter.requeue(copy);
+      }
+    }
+    if (retry) {
+      // let Spring know about the exception so that it rejects the messages
+      ExceptionSupport.sneakyThrow(failure);
+    }
+  }
+
   default <M> void handle(M message, MessageAdapter<M> adapter, MessageListener<M> listener) {
+    if (canSkipStore(message, adapter)) {
+      handleWithoutStore(message, adapter, listener);
+      return;
+    }
+    long localMutexWait = getBeetleAmqpConfiguration().getLocalMutexWaitMs();
+    if (localMutexWait <= 0 || !adapter.isRedundant(message)) {
+      handleWithStore(message, adapter, listener);
+      return;
+    }
+    // a copy handled by another thread of this JVM most likely completes in the meantime, so the
+    // message can be dropped right away instead of being requeued through the broker
+    String queue = adapter.queueOf(message);
+    String key = adapter.keyOf(message);
+    boolean locked = getLocalMutexes().tryLock(queue, key, localMutexWait);
+    try {
+      handleWithStore(message, adapter, listener);
+    } finally {
+      if (locked) {
+        getLocalMutexes().unlock(queue, key);
+      }
+    }
+  }
+
+  private <M> void handleWithStore(
+      M message, MessageAdapter<M> adapter, MessageListener<M> listener) {
     String key = adapter.keyOf(message);
     // check if the message is ancient or it was already completed.
     if (isExpired(message, adapter)) {
@@ -95,7 +360,7 @@ public interface Deduplicator {
               listener,
               String.format("Beetle: ignored completed message %s", adapter.keyOf(message)));
         } else if (delayed(key)) {
-          adapter.requeue(message);
+          adapter.requeueDelayed(message, () -> remainingDelay(key));
         } else {
           long attempt = incrementAttempts(key);
           if (attempt > getBeetleAmqpConfiguration().getMaxHandlerExecutionAttempts()) {
@@ -129,6 +394,104 @@ public interface Deduplicator {
     }
   }
 
+  /**
+   * Handles the message without consulting the deduplication store. Only the expires_at header is
+   * honored: expired messages are dropped, all others are passed to the handler exactly once and
+   * dropped if the handler fails.
+   */
+  default <M> void handleWithoutStore(
+      M message, MessageAdapter<M> adapter, MessageListener<M> listener) {
+    if (dropIfExpired(message, adapter, listener)) {
+      return;
+    }
+    try {
+      runHandler(
+          message,
+          listener,
+          adapter,
+          Duration.ofSeconds(getBeetleAmqpConfiguration().getHandlerTimeoutSeconds()));
+    } catch (Throwable throwable) {
+      adapter.drop(message);
+      listener.onFailure(
+          message,
+          String.format(
+              "Beetle: reached the handler execution attempts limit: %d on %s",
+              getBeetleAmqpConfiguration().getMaxHandlerExecutionAttempts(),
+              adapter.keyOf(message)));
+    }
+  }
+
+  /**
+   * Drops the message if its expires_at header lies in the past, without consulting the
+   * deduplication store.
+   *
+   * @return true if the message was dropped
+   */
+  default <M> boolean dropIfExpired(
+      M message, MessageAdapter<M> adapter, MessageListener<M> listener) {
+    if (!isExpired(message, adapter)) {
+      return false;
+    }
+    adapter.drop(message);
+    listener.onDropped(
+        message, String.format("Beetle: ignored expired message %s", adapter.keyOf(message)));
+    return true;
+  }
+
+  /**
+   * Runs the handler as a task of its own (see {@link ThreadPerTaskExecutor}), so that waiting for
+   * it parks rather than blocks the calling thread if that is a virtual thread. A handler exceeding
+   * the timeout is cancelled, i.e. its thread is interrupted, and still waited for, so the mutex of
+   * the message is not released while the handler runs.
+   *
+   * @return false if the handler timed out
+   */
+  private <T> boolean runOnOwnThread(MessageListener<T> handler, T payload, Duration timeout) {
+    // decides whether the handler runs at all or is cancelled before it started
+    AtomicBoolean started = new AtomicBoolean();
+    CompletableFuture<Void> handled = new CompletableFuture<>();
+    Future<?> execution =
+        ThreadPerTaskExecutor.get()
+            .submit(
+                () -> {
+                  if (started.compareAndSet(false, true)) {
+                    try {
+                      handler.onMessage(payload);
+                      handled.complete(null);
+                    } catch (Throwable throwable) {
+                      handled.completeExceptionally(throwable);
+                    }
+                  }
+                });
+    try {
+      handled.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+      return true;
+    } catch (ExecutionException e) {
+      return ExceptionSupport.sneakyThrow(e.getCause());
+    } catch (InterruptedException e) {
+      execution.cancel(true);
+      Thread.currentThread().interrupt();
+      return ExceptionSupport.sneakyThrow(e);
+    } catch (TimeoutException e) {
+      if (!started.compareAndSet(false, true)) {
+        execution.cancel(true);
+        // a handler ignoring the interruption keeps the message locked until it returns
+        handled.handle((result, error) -> null).join();
+      }
+      return false;
+    }
+  }
+
+  /**
+   * a message which is neither redundant nor retried can never be seen twice by the handler, so
+   * there is no state worth tracking in the store (see cleanUp).
+   */
+  private <M> boolean canSkipStore(M message, MessageAdapter<M> adapter) {
+    return getBeetleAmqpConfiguration().isDedupStoreFastPathEnabled()
+        && getBeetleAmqpConfiguration().getMaxHandlerExecutionAttempts() <= 1
+        && !adapter.isRedundant(message);
+  }
+
   private <M> void dropMessage(
       M message, MessageAdapter<M> adapter, MessageListener<M> listener, String reason) {
     adapter.drop(message);
@@ -149,6 +512,19 @@ public interface Deduplicator {
       MessageListener<M> listener,
       long attempt,
       Throwable throwable) {
+    if (retryOrFail(message, adapter, listener, attempt)) {
+      // let Spring know about the exception so that it rejects the message
+      ExceptionSupport.sneakyThrow(throwable);
+    }
+  }
+
+  /**
+   * requeues the message for a later retry or gives up on it once the exception limit is reached.
+   *
+   * @return true if the message was requeued
+   */
+  private <M> boolean retryOrFail(
+      M message, MessageAdapter<M> adapter, MessageListener<M> listener, long attempt) {
     long exceptions = incrementExceptions(adapter.keyOf(message));
     if (exceptions >= getBeetleAmqpConfiguration().getExceptionLimit()) {
       failureNotification(
@@ -158,11 +534,12 @@ public interface Deduplicator {
           String.format(
               "Beetle: reached the handler exceptions limit: %d on %s",
               getBeetleAmqpConfiguration().getExceptionLimit(), adapter.keyOf(message)));
+      return false;
     } else {
-      setDelay(adapter.keyOf(message), System.currentTimeMillis() + nextDelay(attempt));
-      adapter.requeue(message);
-      // let Spring know about the exception so that it rejects the message
-      ExceptionSupport.sneakyThrow(throwable);
+      long delay = nextDelayMillis(attempt);
+      setDelay(adapter.keyOf(message), System.currentTimeMillis() + delay);
+      adapter.requeueDelayed(message, () -> delay);
+      return true;
     }
   }
 
@@ -187,11 +564,13 @@ public interface Deduplicator {
     }
   }
 
-  private int nextDelay(long attempt) {
-    return (int)
-        Math.min(
-            getBeetleAmqpConfiguration().getMaxhandlerExecutionAttemptsDelay(),
-            getBeetleAmqpConfiguration().getHandlerExecutionAttemptsDelaySeconds()
-                * Math.pow(2, attempt));
+  /** the delays are configured in seconds */
+  private long nextDelayMillis(long attempt) {
+    return TimeUnit.SECONDS.toMillis(
+        (long)
+            Math.min(
+                getBeetleAmqpConfiguration().getMaxhandlerExecutionAttemptsDelay(),
+                getBeetleAmqpConfiguration().getHandlerExecutionAttemptsDelaySeconds()
+                    * Math.pow(2, attempt)));
   }
 }
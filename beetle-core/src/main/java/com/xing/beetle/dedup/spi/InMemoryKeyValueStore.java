@@ -0,0 +1,116 @@
+package com.xing.beetle.dedup.spi;
+
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * KeyValueStore keeping the message status in the memory of the current process. Deduplication
+ * based on this store only detects duplicates handled by the same process.
+ *
+ * <p>Keys stored without an explicit expiry are retained for a fixed time, so that the store does
+ * not grow without bounds. Expired keys are evicted lazily on access and periodically on writes.
+ */
+public class InMemoryKeyValueStore implements KeyValueStore {
+
+  private static final int PURGE_INTERVAL = 1024;
+
+  private static class Entry {
+    private final String text;
+    private final long expiresAtMillis;
+
+    Entry(String text, long expiresAtMillis) {
+      this.text = text;
+      this.expiresAtMillis = expiresAtMillis;
+    }
+
+    boolean isExpired(long now) {
+      return expiresAtMillis <= now;
+    }
+  }
+
+  private final ConcurrentMap<String, Entry> entries;
+  private final long retentionMillis;
+  private final AtomicInteger writes;
+
+  /** @param retentionSeconds how long keys without an explicit expiry are kept */
+  public InMemoryKeyValueStore(int retentionSeconds) {
+    this.entries = new ConcurrentHashMap<>();
+    this.retentionMillis = TimeUnit.SECONDS.toMillis(Math.max(1, retentionSeconds));
+    this.writes = new AtomicInteger();
+  }
+
+  private long expiry(int secondsToExpire) {
+    long now = System.currentTimeMillis();
+    return secondsToExpire > 0
+        ? now + TimeUnit.SECONDS.toMillis(secondsToExpire)
+        : now + retentionMillis;
+  }
+
+  private Entry live(Entry entry) {
+    return entry != null && !entry.isExpired(System.currentTimeMillis()) ? entry : null;
+  }
+
+  private void written() {
+    if (writes.incrementAndGet() % PURGE_INTERVAL == 0) {
+      long now = System.currentTimeMillis();
+      entries.values().removeIf(e -> e.isExpired(now));
+    }
+  }
+
+  @Override
+  public Optional<Value> get(String key) {
+    Entry entry = live(entries.get(key));
+    return Optional.ofNullable(entry).map(e -> new Value(e.text));
+  }
+
+  @Override
+  public Value putIfAbsent(String key, Value value) {
+    Entry entry =
+        entries.compute(
+            key, (k, e) -> live(e) != null ? e : new Entry(value.getAsString(), expiry(0)));
+    written();
+    return new Value(entry.text);
+  }
+
+  @Override
+  public boolean putIfAbsentTtl(String key, Value value, int secondsToExpire) {
+    Entry created = new Entry(value.getAsString(), expiry(secondsToExpire));
+    boolean stored = entries.compute(key, (k, e) -> live(e) != null ? e : created) == created;
+    written();
+    return stored;
+  }
+
+  @Override
+  public void put(String key, Value value) {
+    entries.put(key, new Entry(value.getAsString(), expiry(0)));
+    written();
+  }
+
+  @Override
+  public void delete(String key) {
+    entries.remove(key);
+  }
+
+  @Override
+  public void delete(String... keys) {
+    for (String key : keys) {
+      entries.remove(key);
+    }
+  }
+
+  @Override
+  public long increase(String key) {
+    Entry entry =
+        entries.compute(
+            key,
+            (k, e) ->
+                live(e) != null
+                    ? new Entry(String.valueOf(Long.parseLong(e.text) + 1), e.expiresAtMillis)
+                    : new Entry("1", expiry(0)));
+    written();
+    return Long.parseLong(entry.text);
+  }
+}
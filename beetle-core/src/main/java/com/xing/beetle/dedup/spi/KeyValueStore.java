@@ -1,5 +1,7 @@
 package com.xing.beetle.dedup.spi;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 
 import static java.util.Objects.requireNonNull;
@@ -29,6 +31,126 @@ public interface KeyValueStore {
     }
   }
 
+  /**
+   * Command is a single store operation which can be executed together with others in one round
+   * trip by {@link #execute(List)}.
+   *
+   * @param <R> type of the command's result
+   */
+  final class Command<R> {
+
+    public enum Type {
+      GET,
+      PUT,
+      PUT_IF_ABSENT_TTL,
+      INCREASE,
+      DELETE
+    }
+
+    private final Type type;
+    private final String[] keys;
+    private final Value value;
+    private final int secondsToExpire;
+
+    private Command(Type type, String[] keys, Value value, int secondsToExpire) {
+      this.type = requireNonNull(type);
+      this.keys = requireNonNull(keys);
+      this.value = value;
+      this.secondsToExpire = secondsToExpire;
+    }
+
+    /** result: the current value, if any */
+    public static Command<Optional<Value>> get(String key) {
+      return new Command<>(Type.GET, new String[] {key}, null, 0);
+    }
+
+    /** result: always null */
+    public static Command<Void> put(String key, Value value) {
+      return new Command<>(Type.PUT, new String[] {key}, requireNonNull(value), 0);
+    }
+
+    /** result: true if the value was stored */
+    public static Command<Boolean> putIfAbsentTtl(String key, Value value, int secondsToExpire) {
+      return new Command<>(
+          Type.PUT_IF_ABSENT_TTL, new String[] {key}, requireNonNull(value), secondsToExpire);
+    }
+
+    /** result: the increased value */
+    public static Command<Long> increase(String key) {
+      return new Command<>(Type.INCREASE, new String[] {key}, null, 0);
+    }
+
+    /** result: always null */
+    public static Command<Void> delete(String... keys) {
+      return new Command<>(Type.DELETE, keys, null, 0);
+    }
+
+    public Type getType() {
+      return type;
+    }
+
+    public String getKey() {
+      return keys[0];
+    }
+
+    public String[] getKeys() {
+      return keys;
+    }
+
+    public Value getValue() {
+      return value;
+    }
+
+    public int getSecondsToExpire() {
+      return secondsToExpire;
+    }
+
+    /**
+     * @param result the result of this command as returned by {@link #execute(List)}
+     * @return the typed result
+     */
+    @SuppressWarnings("unchecked")
+    public R resultOf(Object result) {
+      return (R) result;
+    }
+  }
+
+  /**
+   * Executes the given commands in order. Stores supporting it (e.g. by pipelining) do this in a
+   * single round trip, by default the commands are executed one by one.
+   *
+   * @param commands the commands to execute
+   * @return the results of the commands in the same order (see {@link Command#resultOf(Object)})
+   */
+  default List<Object> execute(List<Command<?>> commands) {
+    List<Object> results = new ArrayList<>(commands.size());
+    for (Command<?> command : commands) {
+      switch (command.getType()) {
+        case GET:
+          results.add(get(command.getKey()));
+          break;
+        case PUT:
+          put(command.getKey(), command.getValue());
+          results.add(null);
+          break;
+        case PUT_IF_ABSENT_TTL:
+          results.add(
+              putIfAbsentTtl(command.getKey(), command.getValue(), command.getSecondsToExpire()));
+          break;
+        case INCREASE:
+          results.add(increase(command.getKey()));
+          break;
+        case DELETE:
+          delete(command.getKeys());
+          results.add(null);
+          break;
+        default:
+          throw new IllegalArgumentException("Unsupported command " + command.getType());
+      }
+    }
+    return results;
+  }
+
   Optional<Value> get(String key);
 
   Value putIfAbsent(String key, Value value);
@@ -1,9 +1,18 @@
 package com.xing.beetle.dedup.spi;
 
 import com.xing.beetle.amqp.BeetleAmqpConfiguration;
+import com.xing.beetle.dedup.spi.KeyValueStore.Command;
 import com.xing.beetle.dedup.spi.KeyValueStore.Value;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Stream;
 
 import static java.util.Objects.requireNonNull;
@@ -13,6 +22,7 @@ public class KeyValueStoreBasedDeduplicator implements Deduplicator {
 
   private KeyValueStore store;
   private BeetleAmqpConfiguration beetleAmqpConfig;
+  private final LocalMutexes localMutexes = new LocalMutexes();
 
   public KeyValueStoreBasedDeduplicator(
       KeyValueStore store, BeetleAmqpConfiguration beetleAmqpConfig) {
@@ -30,16 +40,45 @@ public class KeyValueStoreBasedDeduplicator implements Deduplicator {
         key(messageId, MUTEX), new Value(System.currentTimeMillis()), secondsToExpire);
   }
 
+  @Override
+  public Set<String> tryAcquireMutexes(Collection<String> messageIds, int secondsToExpire) {
+    Value now = new Value(System.currentTimeMillis());
+    List<Command<?>> commands = new ArrayList<>(messageIds.size());
+    messageIds.forEach(
+        id -> commands.add(Command.putIfAbsentTtl(key(id, MUTEX), now, secondsToExpire)));
+    List<Object> results = store.execute(commands);
+    Set<String> acquired = new LinkedHashSet<>();
+    int i = 0;
+    for (String messageId : messageIds) {
+      if (Boolean.TRUE.equals(results.get(i++))) {
+        acquired.add(messageId);
+      }
+    }
+    return acquired;
+  }
+
   @Override
   public void releaseMutex(String messageId) {
     store.delete(key(messageId, MUTEX));
   }
 
+  @Override
+  public void releaseMutexes(Collection<String> messageIds) {
+    store.delete(messageIds.stream().map(id -> key(id, MUTEX)).toArray(String[]::new));
+  }
+
   @Override
   public void complete(String messageId) {
     store.put(key(messageId, STATUS), new Value("completed"));
   }
 
+  @Override
+  public void complete(Collection<String> messageIds) {
+    List<Command<?>> commands = new ArrayList<>(messageIds.size());
+    messageIds.forEach(id -> commands.add(Command.put(key(id, STATUS), new Value("completed"))));
+    store.execute(commands);
+  }
+
   @Override
   public boolean completed(String messageId) {
     if (store.putIfAbsentTtl(
@@ -55,13 +94,66 @@ public class KeyValueStoreBasedDeduplicator implements Deduplicator {
     }
   }
 
+  /**
+   * Marks the status of every message as incomplete unless it is already present and reads the
+   * resulting status, all in a single round trip to the store.
+   */
+  @Override
+  public Set<String> completed(Collection<String> messageIds) {
+    int expiry = beetleAmqpConfig.getBeetleRedisStatusKeyExpiryIntervalSeconds();
+    List<Command<?>> commands = new ArrayList<>(2 * messageIds.size());
+    List<Command<Optional<Value>>> reads = new ArrayList<>(messageIds.size());
+    for (String messageId : messageIds) {
+      Command<Optional<Value>> read = Command.get(key(messageId, STATUS));
+      commands.add(Command.putIfAbsentTtl(key(messageId, STATUS), new Value("incomplete"), expiry));
+      commands.add(read);
+      reads.add(read);
+    }
+    List<Object> results = store.execute(commands);
+    Set<String> completed = new LinkedHashSet<>();
+    int i = 0;
+    for (String messageId : messageIds) {
+      Command<Optional<Value>> read = reads.get(i);
+      if (read.resultOf(results.get(2 * i + 1))
+          .map(value -> value.getAsString().equals("completed"))
+          .orElse(false)) {
+        completed.add(messageId);
+      }
+      i++;
+    }
+    return completed;
+  }
+
   @Override
   public boolean delayed(String messageId) {
+    return isDelayed(store.get(key(messageId, DELAY)), System.currentTimeMillis());
+  }
+
+  @Override
+  public long remainingDelay(String messageId) {
+    long now = System.currentTimeMillis();
+    return store.get(key(messageId, DELAY)).map(d -> Math.max(0, d.getAsNumber() - now)).orElse(0L);
+  }
+
+  private static boolean isDelayed(Optional<Value> delay, long now) {
+    return delay.map(d -> d.getAsNumber() > 0 && d.getAsNumber() > now).orElse(false);
+  }
+
+  @Override
+  public Set<String> delayed(Collection<String> messageIds) {
+    List<Command<Optional<Value>>> reads = new ArrayList<>(messageIds.size());
+    messageIds.forEach(id -> reads.add(Command.get(key(id, DELAY))));
+    List<Object> results = store.execute(new ArrayList<>(reads));
     long now = System.currentTimeMillis();
-    return store
-        .get(key(messageId, DELAY))
-        .map(delay -> delay.getAsNumber() > 0 && delay.getAsNumber() > now)
-        .orElse(false);
+    Set<String> delayed = new LinkedHashSet<>();
+    int i = 0;
+    for (String messageId : messageIds) {
+      if (isDelayed(reads.get(i).resultOf(results.get(i)), now)) {
+        delayed.add(messageId);
+      }
+      i++;
+    }
+    return delayed;
   }
 
   @Override
@@ -74,6 +166,19 @@ public class KeyValueStoreBasedDeduplicator implements Deduplicator {
     return store.increase(key(messageId, ATTEMPTS));
   }
 
+  @Override
+  public Map<String, Long> incrementAttempts(Collection<String> messageIds) {
+    List<Command<?>> commands = new ArrayList<>(messageIds.size());
+    messageIds.forEach(id -> commands.add(Command.increase(key(id, ATTEMPTS))));
+    List<Object> results = store.execute(commands);
+    Map<String, Long> attempts = new LinkedHashMap<>();
+    int i = 0;
+    for (String messageId : messageIds) {
+      attempts.put(messageId, (Long) results.get(i++));
+    }
+    return attempts;
+  }
+
   @Override
   public long incrementExceptions(String messageId) {
     return store.increase(key(messageId, EXCEPTIONS));
@@ -97,4 +202,9 @@ public class KeyValueStoreBasedDeduplicator implements Deduplicator {
   public BeetleAmqpConfiguration getBeetleAmqpConfiguration() {
     return this.beetleAmqpConfig;
   }
+
+  @Override
+  public LocalMutexes getLocalMutexes() {
+    return localMutexes;
+  }
 }
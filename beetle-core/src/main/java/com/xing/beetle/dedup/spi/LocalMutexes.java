@@ -0,0 +1,69 @@
+package com.xing.beetle.dedup.spi;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * LocalMutexes serializes the handling of messages with the same id from the same queue by one
+ * deduplicator, so that a redundant copy arriving while the original is handled waits for it
+ * instead of losing the race for the mutex in the deduplication store. There is one lock per queue
+ * and message id in flight, it is removed once no thread holds or waits for it anymore.
+ */
+public final class LocalMutexes {
+
+  private static class Mutex {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // threads holding or waiting for the lock, guarded by the map entry
+    private int users;
+  }
+
+  private final Map<List<String>, Mutex> mutexes = new ConcurrentHashMap<>();
+
+  /**
+   * @param queue the queue the message was consumed from or null if unknown
+   * @return true if the lock could be acquired within the given time
+   */
+  public boolean tryLock(String queue, String messageId, long waitMillis) {
+    List<String> key = Arrays.asList(queue, messageId);
+    Mutex mutex =
+        mutexes.compute(
+            key,
+            (k, existing) -> {
+              Mutex m = existing != null ? existing : new Mutex();
+              m.users++;
+              return m;
+            });
+    boolean locked;
+    try {
+      locked = mutex.lock.tryLock(waitMillis, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      locked = false;
+    }
+    if (!locked) {
+      release(key);
+    }
+    return locked;
+  }
+
+  /** Unlocks a lock acquired by {@link #tryLock(String, String, long)}. */
+  public void unlock(String queue, String messageId) {
+    List<String> key = Arrays.asList(queue, messageId);
+    mutexes.get(key).lock.unlock();
+    release(key);
+  }
+
+  /** @return the number of messages with a lock */
+  int size() {
+    return mutexes.size();
+  }
+
+  private void release(List<String> key) {
+    mutexes.computeIfPresent(key, (k, mutex) -> --mutex.users == 0 ? null : mutex);
+  }
+}
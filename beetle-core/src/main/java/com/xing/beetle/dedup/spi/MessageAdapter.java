@@ -1,13 +1,30 @@
 package com.xing.beetle.dedup.spi;
 
+import java.util.function.LongSupplier;
+
 public interface MessageAdapter<M> {
 
   void drop(M message);
 
   String keyOf(M message);
 
+  /** @return the queue the message was consumed from or null if unknown */
+  default String queueOf(M message) {
+    return null;
+  }
+
   void requeue(M message);
 
+  /**
+   * Requeues a message whose handler execution is delayed. Adapters able to park the message until
+   * it is due may ask for the remaining delay, by default the message is requeued right away.
+   *
+   * @param remainingDelay supplies the milliseconds until the message is due
+   */
+  default void requeueDelayed(M message, LongSupplier remainingDelay) {
+    requeue(message);
+  }
+
   long expiresAt(M message);
 
   boolean isRedundant(M message);
@@ -63,4 +63,15 @@ public class RingStream<E> implements Iterable<E>, Iterator<E> {
     System.arraycopy(others, 0, copy, elements.length, others.length);
     return new RingStream<>(copy);
   }
+
+  public RingStream<E> without(E element) {
+    E[] copy = Arrays.copyOf(elements, elements.length);
+    int size = 0;
+    for (E e : elements) {
+      if (!e.equals(element)) {
+        copy[size++] = e;
+      }
+    }
+    return new RingStream<>(Arrays.copyOf(copy, size));
+  }
 }
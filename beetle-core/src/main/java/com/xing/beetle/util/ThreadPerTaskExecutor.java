@@ -0,0 +1,35 @@
+package com.xing.beetle.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ThreadPerTaskExecutor provides an executor which runs each task on a thread of its own: a virtual
+ * thread if the runtime supports them (Java 21 and later), a pooled daemon thread otherwise.
+ */
+public final class ThreadPerTaskExecutor {
+
+  private static final ExecutorService INSTANCE = create();
+
+  private ThreadPerTaskExecutor() {}
+
+  public static ExecutorService get() {
+    return INSTANCE;
+  }
+
+  private static ExecutorService create() {
+    try {
+      return (ExecutorService)
+          Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      AtomicInteger count = new AtomicInteger();
+      return Executors.newCachedThreadPool(
+          runnable -> {
+            Thread thread = new Thread(runnable, "beetle-handler-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          });
+    }
+  }
+}
@@ -0,0 +1,104 @@
+package com.xing.beetle.amqp;
+
+import com.rabbitmq.client.Channel;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class AdaptiveQosTest {
+
+  @Mock private Channel channel;
+
+  private final AtomicLong clock = new AtomicLong();
+  private final BeetleAmqpConfiguration configuration = new BeetleAmqpConfiguration();
+  private final List<Integer> prefetchCounts = new ArrayList<>();
+  private AdaptiveQos adaptiveQos;
+  private long deliveryTag;
+
+  @BeforeEach
+  void setUp() {
+    configuration.setAdaptiveQosMinPrefetch(2);
+    configuration.setAdaptiveQosMaxPrefetch(500);
+    configuration.setAdaptiveQosTargetMs(1000);
+    adaptiveQos =
+        new AdaptiveQos(
+            configuration, (ch, count) -> prefetchCounts.add(count), clock::get, Runnable::run);
+  }
+
+  /** delivers and acknowledges the given number of messages evenly within one second */
+  private void handle(int messages) throws Exception {
+    long interval = TimeUnit.SECONDS.toNanos(1) / messages;
+    for (int i = 0; i < messages; i++) {
+      long tag = ++deliveryTag;
+      adaptiveQos.delivered(tag, channel);
+      clock.addAndGet(interval);
+      adaptiveQos.completed(tag, false);
+    }
+  }
+
+  @Test
+  void prefetchFollowsTheAckRate() throws Exception {
+    adaptiveQos.prefetchCount(50);
+    handle(10);
+    assertEquals(List.of(10), prefetchCounts);
+    handle(1);
+    assertEquals(List.of(10, 2), prefetchCounts);
+    // grows at most twice per window
+    handle(100);
+    assertEquals(List.of(10, 2, 4), prefetchCounts);
+  }
+
+  @Test
+  void smallChangesAreIgnored() throws Exception {
+    adaptiveQos.prefetchCount(100);
+    handle(95);
+    handle(105);
+    assertTrue(prefetchCounts.isEmpty());
+  }
+
+  @Test
+  void multipleAcksCompleteAllDeliveries() throws Exception {
+    adaptiveQos.prefetchCount(0);
+    for (int tag = 1; tag <= 20; tag++) {
+      adaptiveQos.delivered(tag, channel);
+    }
+    clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    adaptiveQos.completed(20, true);
+    assertEquals(List.of(20), prefetchCounts);
+  }
+
+  @Test
+  void prefetchCountsAreAppliedLaterAndNotToRemovedChannels() throws Exception {
+    List<Runnable> tasks = new ArrayList<>();
+    adaptiveQos =
+        new AdaptiveQos(
+            configuration, (ch, count) -> prefetchCounts.add(count), clock::get, tasks::add);
+    adaptiveQos.prefetchCount(50);
+    handle(10);
+    handle(1);
+    // the second count replaces the first one, which was not applied yet
+    assertTrue(prefetchCounts.isEmpty());
+    assertEquals(1, tasks.size());
+    tasks.get(0).run();
+    assertEquals(List.of(2), prefetchCounts);
+
+    handle(4);
+    assertEquals(2, tasks.size());
+    adaptiveQos.remove(channel);
+    tasks.get(1).run();
+    assertEquals(List.of(2), prefetchCounts);
+  }
+}
@@ -0,0 +1,512 @@
+package com.xing.beetle.amqp;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.Consumer;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.ExceptionHandler;
+import com.rabbitmq.client.GetResponse;
+import com.rabbitmq.client.ShutdownListener;
+import com.rabbitmq.client.ShutdownSignalException;
+import com.xing.beetle.BeetleHeader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class BeetleChannelTest {
+
+  @Mock private Channel publisher;
+
+  @Mock private Channel subscriber;
+
+  @Mock private Consumer consumer;
+
+  @Mock private BeetleAmqpConfiguration configuration;
+
+  @Test
+  void subscriptionOnlyBrokersAreNotPublishedTo() throws Exception {
+    BeetleChannel channel =
+        new BeetleChannel(List.of(publisher), List.of(subscriber), configuration);
+    channel.basicPublish("exchange", "key", null, new byte[0]);
+    verify(publisher).basicPublish(eq("exchange"), eq("key"), eq(false), eq(false), any(), any());
+    verify(subscriber, never())
+        .basicPublish(any(), any(), anyBoolean(), anyBoolean(), any(), any());
+  }
+
+  @Test
+  void subscriptionOnlyBrokersAreConsumedFrom() throws Exception {
+    for (Channel ch : List.of(publisher, subscriber)) {
+      when(ch.basicConsume(
+              anyString(), anyBoolean(), anyString(), anyBoolean(), anyBoolean(), any(), any()))
+          .thenAnswer(invocation -> invocation.getArgument(2));
+    }
+    BeetleChannel channel =
+        new BeetleChannel(List.of(publisher), List.of(subscriber), configuration);
+    assertEquals("tag", channel.basicConsume("queue", false, "tag", consumer));
+    verify(publisher)
+        .basicConsume(eq("queue"), eq(false), eq("tag"), eq(false), eq(false), any(), any());
+    verify(subscriber)
+        .basicConsume(eq("queue"), eq(false), eq("tag"), eq(false), eq(false), any(), any());
+  }
+
+  @Test
+  void topologyOperationsRunOnAllBrokersConcurrently() throws Exception {
+    CountDownLatch bothStarted = new CountDownLatch(2);
+    for (Channel ch : List.of(publisher, subscriber)) {
+      when(ch.exchangeDeclare(
+              anyString(), anyString(), anyBoolean(), anyBoolean(), anyBoolean(), any()))
+          .thenAnswer(
+              invocation -> {
+                bothStarted.countDown();
+                assertTrue(bothStarted.await(5, TimeUnit.SECONDS));
+                return null;
+              });
+    }
+    BeetleChannel channel =
+        new BeetleChannel(List.of(publisher), List.of(subscriber), configuration);
+    channel.exchangeDeclare("exchange", "topic", true);
+    verify(publisher).exchangeDeclare("exchange", "topic", true, false, false, null);
+    verify(subscriber).exchangeDeclare("exchange", "topic", true, false, false, null);
+  }
+
+  @Test
+  void topologyFailuresAreAggregated() throws Exception {
+    when(publisher.queueDeclare(anyString(), anyBoolean(), anyBoolean(), anyBoolean(), any()))
+        .thenThrow(new IOException("declare failed"));
+    BeetleChannel channel =
+        new BeetleChannel(List.of(publisher), List.of(subscriber), configuration);
+    IOException e =
+        assertThrows(IOException.class, () -> channel.queueDeclare("q", true, false, false, null));
+    assertTrue(e.getMessage().contains("1 of 2 brokers"));
+    assertEquals("declare failed", e.getCause().getMessage());
+    verify(subscriber).queueDeclare("q", true, false, false, null);
+  }
+
+  @Test
+  void consumersArePausedWhileTheBudgetIsExceeded() throws Exception {
+    ArgumentCaptor<Consumer> consumers = ArgumentCaptor.forClass(Consumer.class);
+    when(publisher.basicConsume(
+            anyString(), anyBoolean(), anyString(), anyBoolean(), anyBoolean(), any(), any()))
+        .thenAnswer(invocation -> invocation.getArgument(2));
+    BeetleChannel channel =
+        new BeetleChannel(
+            List.of(publisher), List.of(), configuration, new InFlightBudget(100), new LongAdder());
+    channel.basicConsume("queue", false, "tag", consumer);
+    verify(publisher)
+        .basicConsume(
+            eq("queue"), eq(false), eq("tag"), eq(false), eq(false), any(), consumers.capture());
+
+    Envelope first = new Envelope(1, false, "", "queue");
+    Envelope second = new Envelope(2, false, "", "queue");
+    consumers.getValue().handleDelivery("tag", first, null, new byte[60]);
+    consumers.getValue().handleDelivery("tag", second, null, new byte[60]);
+    verify(publisher, timeout(2000)).basicCancel("tag");
+    consumers.getValue().handleCancelOk("tag");
+    verify(consumer, never()).handleCancelOk("tag");
+
+    channel.basicAck(2, true);
+    verify(publisher, timeout(2000).times(2))
+        .basicConsume(eq("queue"), eq(false), eq("tag"), eq(false), eq(false), any(), any());
+  }
+
+  @Test
+  void closingAChannelWithUnackedDeliveriesResumesTheOthers() throws Exception {
+    ArgumentCaptor<Consumer> consumers = ArgumentCaptor.forClass(Consumer.class);
+    when(publisher.basicConsume(
+            anyString(), anyBoolean(), anyString(), anyBoolean(), anyBoolean(), any(), any()))
+        .thenAnswer(invocation -> invocation.getArgument(2));
+    when(subscriber.basicConsume(
+            anyString(), anyBoolean(), anyString(), anyBoolean(), anyBoolean(), any(), any()))
+        .thenAnswer(invocation -> invocation.getArgument(2));
+    InFlightBudget budget = new InFlightBudget(100);
+    BeetleChannel closing =
+        new BeetleChannel(List.of(publisher), List.of(), configuration, budget, new LongAdder());
+    BeetleChannel other =
+        new BeetleChannel(List.of(subscriber), List.of(), configuration, budget, new LongAdder());
+    closing.basicConsume("queue", false, "closing", consumer);
+    other.basicConsume("queue", false, "other", consumer);
+    verify(publisher)
+        .basicConsume(
+            eq("queue"),
+            eq(false),
+            eq("closing"),
+            eq(false),
+            eq(false),
+            any(),
+            consumers.capture());
+
+    consumers
+        .getValue()
+        .handleDelivery("closing", new Envelope(1, false, "", "queue"), null, new byte[60]);
+    consumers
+        .getValue()
+        .handleDelivery("closing", new Envelope(2, false, "", "queue"), null, new byte[60]);
+    verify(subscriber, timeout(2000)).basicCancel("other");
+
+    closing.close();
+    assertEquals(0, budget.inFlight());
+    verify(subscriber, timeout(2000).times(2))
+        .basicConsume(eq("queue"), eq(false), eq("other"), eq(false), eq(false), any(), any());
+  }
+
+  @Test
+  void budgetIsReleasedIfTheAckFailsOrTheBrokerIsLost() throws Exception {
+    ArgumentCaptor<Consumer> consumers = ArgumentCaptor.forClass(Consumer.class);
+    ArgumentCaptor<ShutdownListener> shutdownListener =
+        ArgumentCaptor.forClass(ShutdownListener.class);
+    when(publisher.basicConsume(
+            anyString(), anyBoolean(), anyString(), anyBoolean(), anyBoolean(), any(), any()))
+        .thenAnswer(invocation -> invocation.getArgument(2));
+    doThrow(new IOException("channel closed")).when(publisher).basicAck(1, false);
+    InFlightBudget budget = new InFlightBudget(1000);
+    BeetleChannel channel =
+        new BeetleChannel(List.of(publisher), List.of(), configuration, budget, new LongAdder());
+    verify(publisher).addShutdownListener(shutdownListener.capture());
+    channel.basicConsume("queue", false, "tag", consumer);
+    verify(publisher)
+        .basicConsume(
+            eq("queue"), eq(false), eq("tag"), eq(false), eq(false), any(), consumers.capture());
+    consumers
+        .getValue()
+        .handleDelivery("tag", new Envelope(1, false, "", "queue"), null, new byte[60]);
+    consumers
+        .getValue()
+        .handleDelivery("tag", new Envelope(2, false, "", "queue"), null, new byte[60]);
+
+    assertThrows(IOException.class, () -> channel.basicAck(1, false));
+    assertEquals(60, budget.inFlight());
+    shutdownListener.getValue().shutdownCompleted(mock(ShutdownSignalException.class));
+    assertEquals(0, budget.inFlight());
+  }
+
+  @Test
+  void adaptivePrefetchKeepsTheScopeOfTheConsumerQos() throws Exception {
+    when(configuration.isAdaptiveQosEnabled()).thenReturn(true);
+    when(configuration.getAdaptiveQosMinPrefetch()).thenReturn(1);
+    when(configuration.getAdaptiveQosMaxPrefetch()).thenReturn(500);
+    when(configuration.getAdaptiveQosTargetMs()).thenReturn(1000L);
+    ArgumentCaptor<Consumer> consumers = ArgumentCaptor.forClass(Consumer.class);
+    when(publisher.basicConsume(
+            anyString(), anyBoolean(), anyString(), anyBoolean(), anyBoolean(), any(), any()))
+        .thenAnswer(invocation -> invocation.getArgument(2));
+    BeetleChannel channel = new BeetleChannel(List.of(publisher), configuration);
+    channel.basicQos(250);
+    channel.basicConsume("queue", false, "tag", consumer);
+    verify(publisher)
+        .basicConsume(
+            eq("queue"), eq(false), eq("tag"), eq(false), eq(false), any(), consumers.capture());
+
+    consumers.getValue().handleDelivery("tag", new Envelope(1, false, "", "queue"), null, null);
+    Thread.sleep(TimeUnit.NANOSECONDS.toMillis(AdaptiveQos.WINDOW_NANOS) + 50);
+    channel.basicAck(1, false);
+    verify(publisher, timeout(2000)).basicQos(0, 1, false);
+    verify(publisher, never()).basicQos(anyInt(), anyInt(), eq(true));
+  }
+
+  @Test
+  void cancellationsByAPauseAreHiddenEvenIfConfirmedAfterResuming() throws Exception {
+    ArgumentCaptor<Consumer> consumers = ArgumentCaptor.forClass(Consumer.class);
+    when(publisher.basicConsume(
+            anyString(), anyBoolean(), anyString(), anyBoolean(), anyBoolean(), any(), any()))
+        .thenAnswer(invocation -> invocation.getArgument(2));
+    BeetleChannel channel =
+        new BeetleChannel(
+            List.of(publisher), List.of(), configuration, new InFlightBudget(100), new LongAdder());
+    channel.basicConsume("queue", false, "tag", consumer);
+
+    channel.pause();
+    channel.resume();
+    verify(publisher, times(2))
+        .basicConsume(
+            eq("queue"), eq(false), eq("tag"), eq(false), eq(false), any(), consumers.capture());
+    List<Consumer> pipelines = consumers.getAllValues();
+    pipelines.get(0).handleCancelOk("tag");
+    verify(consumer, never()).handleCancelOk("tag");
+
+    channel.basicCancel("tag");
+    pipelines.get(pipelines.size() - 1).handleCancelOk("tag");
+    verify(consumer).handleCancelOk("tag");
+  }
+
+  @Test
+  void consumersOfAutoDeleteQueuesAreNotPaused() throws Exception {
+    AMQP.Queue.DeclareOk declareOk = mock(AMQP.Queue.DeclareOk.class);
+    when(declareOk.getQueue()).thenReturn("anonymous");
+    when(publisher.queueDeclare("", false, true, true, null)).thenReturn(declareOk);
+    when(publisher.basicConsume(
+            anyString(), anyBoolean(), anyString(), anyBoolean(), anyBoolean(), any(), any()))
+        .thenAnswer(invocation -> invocation.getArgument(2));
+    BeetleChannel channel =
+        new BeetleChannel(
+            List.of(publisher), List.of(), configuration, new InFlightBudget(100), new LongAdder());
+    String queue = channel.queueDeclare().getQueue();
+    channel.basicConsume(queue, false, "anonymous", consumer);
+    channel.basicConsume("queue", false, "durable", consumer);
+
+    channel.pause();
+    verify(publisher).basicCancel("durable");
+    verify(publisher, never()).basicCancel("anonymous");
+
+    channel.resume();
+    verify(publisher, times(1))
+        .basicConsume(
+            eq("anonymous"),
+            anyBoolean(),
+            eq("anonymous"),
+            anyBoolean(),
+            anyBoolean(),
+            any(),
+            any());
+    verify(publisher, times(2))
+        .basicConsume(
+            eq("queue"), anyBoolean(), eq("durable"), anyBoolean(), anyBoolean(), any(), any());
+  }
+
+  @Test
+  void multipleAcksSkipMessagesPendingOnLanes() throws Exception {
+    when(configuration.getHandlerLanes()).thenReturn(2);
+    when(configuration.getHandlerLaneKey()).thenReturn(PartitionedConsumer.ROUTING_KEY);
+    ArgumentCaptor<Consumer> consumers = ArgumentCaptor.forClass(Consumer.class);
+    when(publisher.basicConsume(
+            anyString(), anyBoolean(), anyString(), anyBoolean(), anyBoolean(), any(), any()))
+        .thenAnswer(invocation -> invocation.getArgument(2));
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch fastHandled = new CountDownLatch(1);
+    doAnswer(
+            invocation -> {
+              Envelope envelope = invocation.getArgument(1);
+              if (envelope.getRoutingKey().equals("slow")) {
+                release.await(5, TimeUnit.SECONDS);
+              } else {
+                fastHandled.countDown();
+              }
+              return null;
+            })
+        .when(consumer)
+        .handleDelivery(anyString(), any(), any(), any());
+    BeetleChannel channel = new BeetleChannel(List.of(publisher), configuration);
+    channel.basicConsume("queue", false, "tag", consumer);
+    verify(publisher)
+        .basicConsume(
+            eq("queue"), eq(false), eq("tag"), eq(false), eq(false), any(), consumers.capture());
+
+    consumers.getValue().handleDelivery("tag", new Envelope(1, false, "", "slow"), null, null);
+    consumers.getValue().handleDelivery("tag", new Envelope(2, false, "", "fast"), null, null);
+    assertTrue(fastHandled.await(5, TimeUnit.SECONDS));
+    channel.basicAck(2, true);
+    verify(publisher).basicAck(2, false);
+    verify(publisher, never()).basicAck(eq(1L), anyBoolean());
+
+    release.countDown();
+    channel.basicAck(1, false);
+    verify(publisher).basicAck(1, false);
+  }
+
+  @Test
+  void failuresOnLanesGoToTheExceptionHandler() throws Exception {
+    when(configuration.getHandlerLanes()).thenReturn(2);
+    when(configuration.getHandlerLaneKey()).thenReturn(PartitionedConsumer.MESSAGE_ID);
+    Connection connection = mock(Connection.class);
+    ExceptionHandler exceptionHandler = mock(ExceptionHandler.class);
+    when(publisher.getConnection()).thenReturn(connection);
+    when(connection.getExceptionHandler()).thenReturn(exceptionHandler);
+    ArgumentCaptor<Consumer> consumers = ArgumentCaptor.forClass(Consumer.class);
+    when(publisher.basicConsume(
+            anyString(), anyBoolean(), anyString(), anyBoolean(), anyBoolean(), any(), any()))
+        .thenAnswer(invocation -> invocation.getArgument(2));
+    RuntimeException failure = new IllegalStateException("handler failed");
+    doThrow(failure).when(consumer).handleDelivery(anyString(), any(), any(), any());
+    BeetleChannel channel = new BeetleChannel(List.of(publisher), configuration);
+    channel.basicConsume("queue", false, "tag", consumer);
+    verify(publisher)
+        .basicConsume(
+            eq("queue"), eq(false), eq("tag"), eq(false), eq(false), any(), consumers.capture());
+
+    consumers.getValue().handleDelivery("tag", new Envelope(1, false, "", "queue"), null, null);
+    verify(exceptionHandler, timeout(2000))
+        .handleConsumerException(publisher, failure, consumer, "tag", "handleDelivery");
+  }
+
+  @Test
+  void threadPerMessageHandsDeliveriesOffTheConsumerThread() throws Exception {
+    when(configuration.isHandlerThreadPerMessage()).thenReturn(true);
+    ArgumentCaptor<Consumer> consumers = ArgumentCaptor.forClass(Consumer.class);
+    when(publisher.basicConsume(
+            anyString(), anyBoolean(), anyString(), anyBoolean(), anyBoolean(), any(), any()))
+        .thenAnswer(invocation -> invocation.getArgument(2));
+    CompletableFuture<Thread> handler = new CompletableFuture<>();
+    doAnswer(invocation -> handler.complete(Thread.currentThread()))
+        .when(consumer)
+        .handleDelivery(anyString(), any(), any(), any());
+    BeetleChannel channel = new BeetleChannel(List.of(publisher), configuration);
+    channel.basicConsume("queue", false, "tag", consumer);
+    verify(publisher)
+        .basicConsume(
+            eq("queue"), eq(false), eq("tag"), eq(false), eq(false), any(), consumers.capture());
+
+    consumers.getValue().handleDelivery("tag", new Envelope(1, false, "", "queue"), null, null);
+    assertNotSame(Thread.currentThread(), handler.get(2, TimeUnit.SECONDS));
+  }
+
+  private static GetResponse response(long deliveryTag) {
+    return new GetResponse(new Envelope(deliveryTag, false, "", "queue"), null, new byte[0], 0);
+  }
+
+  @Test
+  void basicGetStopsAtTheFirstMessageAndRotates() throws Exception {
+    when(publisher.basicGet("queue", false)).thenReturn(response(1));
+    when(subscriber.basicGet("queue", false)).thenReturn(response(1));
+    BeetleChannel channel =
+        new BeetleChannel(List.of(publisher), List.of(subscriber), configuration);
+
+    assertEquals(1, channel.basicGet("queue", false).getEnvelope().getDeliveryTag());
+    verify(subscriber, never()).basicGet(anyString(), anyBoolean());
+    assertEquals(2, channel.basicGet("queue", false).getEnvelope().getDeliveryTag());
+    verify(publisher).basicGet("queue", false);
+    verify(subscriber).basicGet("queue", false);
+
+    channel.basicAck(2, false);
+    verify(subscriber).basicAck(1, false);
+    verify(publisher, never()).basicAck(anyLong(), anyBoolean());
+  }
+
+  @Test
+  void publishingToTheOriginIgnoresTheRedundancy() throws Exception {
+    when(subscriber.basicGet("queue", false)).thenReturn(response(5));
+    BeetleChannel channel =
+        new BeetleChannel(List.of(publisher), List.of(subscriber), configuration);
+    long deliveryTag = channel.basicGet("queue", false).getEnvelope().getDeliveryTag();
+
+    AMQP.BasicProperties props =
+        new AMQP.BasicProperties.Builder()
+            .headers(Map.of(BeetleHeader.PUBLISH_REDUNDANCY, 2))
+            .build();
+    byte[] body = new byte[0];
+    channel.basicPublishToOrigin(deliveryTag, "", "queue_delay", props, body);
+    verify(subscriber).basicPublish("", "queue_delay", props, body);
+    verify(publisher, never()).basicPublish(any(), any(), any(), any());
+    verify(publisher, never()).basicPublish(any(), any(), anyBoolean(), anyBoolean(), any(), any());
+
+    assertThrows(
+        IOException.class,
+        () -> channel.basicPublishToOrigin(deliveryTag + 1, "", "queue_delay", props, body));
+  }
+
+  @Test
+  void basicGetManyDrainsBrokersInTurn() throws Exception {
+    when(publisher.basicGet("queue", true)).thenReturn(response(1), response(2), null);
+    when(subscriber.basicGet("queue", true)).thenReturn(response(11), (GetResponse) null);
+    BeetleChannel channel =
+        new BeetleChannel(List.of(publisher), List.of(subscriber), configuration);
+
+    List<GetResponse> responses = channel.basicGetMany("queue", 10, true);
+    assertEquals(
+        List.of(1L, 11L, 2L),
+        responses.stream().map(r -> r.getEnvelope().getDeliveryTag()).collect(Collectors.toList()));
+    verify(publisher, times(3)).basicGet("queue", true);
+    verify(subscriber, times(2)).basicGet("queue", true);
+    assertTrue(channel.basicGetMany("queue", 10, true).isEmpty());
+  }
+
+  @Test
+  void basicGetManyReturnsTheMessagesFetchedBeforeABrokerFailed() throws Exception {
+    when(publisher.basicGet("queue", false)).thenReturn(response(1), response(2), null);
+    when(subscriber.basicGet("queue", false)).thenThrow(new IOException("broker down"));
+    BeetleChannel channel =
+        new BeetleChannel(List.of(publisher), List.of(subscriber), configuration);
+
+    List<GetResponse> responses = channel.basicGetMany("queue", 10, false);
+    assertEquals(2, responses.size());
+    channel.basicAck(responses.get(1).getEnvelope().getDeliveryTag(), true);
+    verify(publisher).basicAck(2, true);
+
+    assertThrows(IOException.class, () -> channel.basicGetMany("queue", 10, false));
+  }
+
+  @Test
+  void deliveriesAreMappedOnlyIfAcknowledgedByTheConsumer() throws Exception {
+    ArgumentCaptor<Consumer> consumers = ArgumentCaptor.forClass(Consumer.class);
+    when(publisher.basicConsume(
+            anyString(), anyBoolean(), anyString(), anyBoolean(), anyBoolean(), any(), any()))
+        .thenAnswer(invocation -> invocation.getArgument(2));
+    BeetleChannel channel = new BeetleChannel(List.of(publisher), configuration);
+    channel.basicConsume("manual", false, "manual", consumer);
+    channel.basicConsume("auto", true, "auto", consumer);
+    verify(publisher, times(2))
+        .basicConsume(
+            anyString(),
+            anyBoolean(),
+            anyString(),
+            eq(false),
+            eq(false),
+            any(),
+            consumers.capture());
+
+    Envelope envelope = new Envelope(42, false, "", "queue");
+    consumers.getAllValues().get(0).handleDelivery("manual", envelope, null, new byte[0]);
+    verify(consumer)
+        .handleDelivery(eq("manual"), argThat(e -> e.getDeliveryTag() == 1), any(), any());
+    consumers.getAllValues().get(1).handleDelivery("auto", envelope, null, new byte[0]);
+    verify(consumer).handleDelivery(eq("auto"), same(envelope), any(), any());
+
+    channel.basicAck(1, false);
+    verify(publisher).basicAck(42, false);
+  }
+
+  @Test
+  void expiredMessagesAreAcknowledgedOnDelivery() throws Exception {
+    ArgumentCaptor<Consumer> consumers = ArgumentCaptor.forClass(Consumer.class);
+    when(configuration.isDropExpiredOnDelivery()).thenReturn(true);
+    when(publisher.basicConsume(
+            anyString(), anyBoolean(), anyString(), anyBoolean(), anyBoolean(), any(), any()))
+        .thenAnswer(invocation -> invocation.getArgument(2));
+    LongAdder expired = new LongAdder();
+    BeetleChannel channel =
+        new BeetleChannel(List.of(publisher), List.of(), configuration, null, expired);
+    channel.basicConsume("queue", false, "tag", consumer);
+    verify(publisher)
+        .basicConsume(
+            eq("queue"), eq(false), eq("tag"), eq(false), eq(false), any(), consumers.capture());
+
+    long now = Instant.now().getEpochSecond();
+    consumers
+        .getValue()
+        .handleDelivery("tag", new Envelope(7, false, "", "queue"), expiresAt(now - 10), null);
+    verify(publisher).basicAck(7, false);
+    verify(consumer, never()).handleDelivery(any(), any(), any(), any());
+    assertEquals(1, expired.sum());
+
+    consumers
+        .getValue()
+        .handleDelivery("tag", new Envelope(8, false, "", "queue"), expiresAt(now + 60), null);
+    verify(consumer).handleDelivery(eq("tag"), any(), any(), any());
+    assertEquals(1, expired.sum());
+  }
+
+  private static AMQP.BasicProperties expiresAt(long timestamp) {
+    return new AMQP.BasicProperties.Builder()
+        .headers(Map.of(BeetleHeader.EXPIRES_AT, timestamp))
+        .build();
+  }
+}
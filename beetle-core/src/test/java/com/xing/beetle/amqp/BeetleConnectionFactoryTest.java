@@ -0,0 +1,112 @@
+package com.xing.beetle.amqp;
+
+import com.rabbitmq.client.Address;
+import com.rabbitmq.client.AddressResolver;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ListAddressResolver;
+import com.rabbitmq.client.RecoverableConnection;
+import com.xing.beetle.util.RetryExecutor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.System.Logger.Level;
+import java.net.ConnectException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class BeetleConnectionFactoryTest {
+
+  private static final Address LIVE = new Address("live", 5672);
+  private static final Address DEAD = new Address("dead", 5672);
+
+  private final BeetleAmqpConfiguration configuration = new BeetleAmqpConfiguration();
+  private final RecoverableConnection live = mock(RecoverableConnection.class);
+  private final List<ExecutorService> dispatchExecutors = new CopyOnWriteArrayList<>();
+
+  /** connects to LIVE asynchronously after a short delay and never to DEAD */
+  private BeetleConnectionFactory factory() {
+    BeetleConnectionFactory factory =
+        new BeetleConnectionFactory(configuration) {
+          @Override
+          RecoverableConnection newBrokerConnection(
+              ExecutorService executor, AddressResolver resolver, String clientProvidedName)
+              throws IOException {
+            dispatchExecutors.add(executor);
+            if (resolver.getAddresses().contains(DEAD)) {
+              throw new ConnectException("Connection refused");
+            }
+            return live;
+          }
+        };
+    factory.setConnectionEstablishingExecutor(
+        new RetryExecutor(
+            CompletableFuture.delayedExecutor(50, TimeUnit.MILLISECONDS),
+            RetryExecutor.Scheduler.IMMEDIATELY,
+            RetryExecutor.Backoff.fixed(0, TimeUnit.MILLISECONDS).withMaxAttempts(2),
+            Level.DEBUG));
+    return factory;
+  }
+
+  @BeforeEach
+  void setUp() throws Exception {
+    when(live.isOpen()).thenReturn(true);
+    when(live.getPort()).thenReturn(5672);
+    when(live.createChannel()).thenReturn(mock(Channel.class));
+    // slows down the decoration of the established connection
+    doAnswer(
+            invocation -> {
+              Thread.sleep(100);
+              return null;
+            })
+        .when(live)
+        .addRecoveryListener(any());
+  }
+
+  private Connection connect(Address... addresses) throws Exception {
+    return factory().newConnection(null, new ListAddressResolver(List.of(addresses)), null);
+  }
+
+  @Test
+  void connectionIsUsableOnceTheQuorumIsReached() throws Exception {
+    configuration.setConnectionQuorum(1);
+    Connection connection = connect(LIVE, DEAD);
+    assertEquals(5672, connection.getPort());
+  }
+
+  @Test
+  void failsAndAbortsIfTheQuorumCannotBeReached() {
+    configuration.setConnectionQuorum(2);
+    IOException e = assertThrows(IOException.class, () -> connect(LIVE, DEAD));
+    assertEquals("Unable to connect to 2 of 2 brokers", e.getMessage());
+    verify(live, timeout(1000)).abort();
+  }
+
+  @Test
+  void withoutQuorumUnreachableBrokersAreSkipped() throws Exception {
+    Connection connection = connect(DEAD, LIVE);
+    assertEquals(5672, connection.getPort());
+    verify(live, never()).abort();
+  }
+
+  @Test
+  void closingShutsDownTheConsumerDispatchPool() throws Exception {
+    configuration.setConsumerDispatchThreads(2);
+    BeetleConnectionFactory factory = factory();
+    factory.newConnection(null, new ListAddressResolver(List.of(LIVE)), null);
+    ExecutorService pool = dispatchExecutors.get(0);
+    assertNotNull(pool);
+    assertFalse(pool.isShutdown());
+
+    factory.close();
+
+    assertTrue(pool.isShutdown());
+  }
+}
@@ -0,0 +1,105 @@
+package com.xing.beetle.amqp;
+
+import com.rabbitmq.client.Address;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.Consumer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class BeetleConnectionTest {
+
+  private static final Address FIRST = new Address("broker1", 5672);
+  private static final Address SECOND = new Address("broker2", 5672);
+
+  @Mock private Connection first;
+  @Mock private Connection second;
+  @Mock private Channel firstChannel;
+  @Mock private Channel secondChannel;
+  @Mock private Consumer consumer;
+  @Mock private BeetleAmqpConfiguration configuration;
+
+  private BeetleConnection connection() throws Exception {
+    when(first.createChannel()).thenReturn(firstChannel);
+    when(second.createChannel()).thenReturn(secondChannel);
+    for (Channel ch : List.of(firstChannel, secondChannel)) {
+      when(ch.basicConsume(
+              anyString(), anyBoolean(), anyString(), anyBoolean(), anyBoolean(), any(), any()))
+          .thenAnswer(invocation -> invocation.getArgument(2));
+    }
+    BeetleConnection connection = new BeetleConnection(List.of(first), configuration);
+    connection.bindAddresses(
+        List.of(FIRST), Collections.emptyList(), address -> SECOND.equals(address) ? second : null);
+    return connection;
+  }
+
+  @Test
+  void addedBrokerIsAttachedToOpenChannels() throws Exception {
+    BeetleConnection connection = connection();
+    Channel channel = connection.createChannel();
+    channel.basicQos(5);
+    channel.basicConsume("queue", false, "tag", consumer);
+
+    connection.addBroker(SECOND, false);
+
+    assertEquals(List.of(FIRST, SECOND), connection.getBrokerAddresses());
+    verify(secondChannel).basicQos(5);
+    verify(secondChannel)
+        .basicConsume(eq("queue"), eq(false), eq("tag"), eq(false), eq(false), any(), any());
+    channel.basicPublish("exchange", "key", null, new byte[0]);
+    channel.basicPublish("exchange", "key", null, new byte[0]);
+    verify(firstChannel).basicPublish(any(), any(), anyBoolean(), anyBoolean(), any(), any());
+    verify(secondChannel).basicPublish(any(), any(), anyBoolean(), anyBoolean(), any(), any());
+  }
+
+  @Test
+  void closedChannelsAreForgotten() throws Exception {
+    BeetleConnection connection = connection();
+    Channel closed = connection.createChannel();
+    Channel aborted = connection.createChannel();
+    connection.createChannel();
+    assertEquals(3, connection.openChannels());
+
+    closed.close();
+    aborted.abort();
+    assertEquals(1, connection.openChannels());
+  }
+
+  @Test
+  void drainedBrokerIsDetachedAndClosed() throws Exception {
+    BeetleConnection connection = connection();
+    connection.addBroker(SECOND, true);
+    Channel channel = connection.createChannel();
+    channel.basicConsume("queue", false, "tag", consumer);
+
+    connection.drainBroker(SECOND);
+
+    assertEquals(List.of(FIRST), connection.getBrokerAddresses());
+    verify(secondChannel).basicCancel("tag");
+    verify(second, timeout(1000)).close();
+    channel.basicConsume("other", false, "tag2", consumer);
+    verify(secondChannel, never())
+        .basicConsume(
+            eq("other"), anyBoolean(), anyString(), anyBoolean(), anyBoolean(), any(), any());
+  }
+
+  @Test
+  void brokersAreUpdatedFromServerLists() throws Exception {
+    BeetleConnection connection = connection();
+    connection.updateBrokers("broker2:5672", "");
+    assertEquals(List.of(SECOND), connection.getBrokerAddresses());
+  }
+}
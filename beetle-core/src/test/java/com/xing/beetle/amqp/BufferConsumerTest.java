@@ -0,0 +1,49 @@
+package com.xing.beetle.amqp;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Envelope;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BufferConsumerTest {
+
+  private final List<ByteBuffer> bodies = new ArrayList<>();
+
+  private final BufferConsumer consumer =
+      new BufferConsumer(null) {
+        @Override
+        public void handleBuffer(
+            String consumerTag,
+            Envelope envelope,
+            AMQP.BasicProperties properties,
+            ByteBuffer body) {
+          bodies.add(body);
+        }
+      };
+
+  @Test
+  void bodyIsAReadOnlyViewWithoutCopy() throws Exception {
+    byte[] body = "hello".getBytes(StandardCharsets.UTF_8);
+    consumer.handleDelivery("tag", new Envelope(1, false, "", "q"), null, body);
+
+    ByteBuffer buffer = bodies.get(0);
+    assertTrue(buffer.isReadOnly());
+    assertEquals(5, buffer.remaining());
+    body[0] = 'j';
+    assertEquals("jello", StandardCharsets.UTF_8.decode(buffer).toString());
+    assertThrows(ReadOnlyBufferException.class, () -> buffer.put(0, (byte) 'h'));
+  }
+
+  @Test
+  void missingBodyIsEmpty() throws Exception {
+    consumer.handleDelivery("tag", new Envelope(1, false, "", "q"), null, null);
+    assertEquals(0, bodies.get(0).remaining());
+  }
+}
@@ -0,0 +1,107 @@
+package com.xing.beetle.amqp;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.DefaultConsumer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class MultiPlexingConnectionTest {
+
+  @Mock private Connection delegate;
+
+  @Mock private Connection consumeDelegate;
+
+  @Mock private Channel publisher;
+
+  @Mock private Channel first;
+
+  @Mock private Channel second;
+
+  private Channel channel(int maxConsumersPerChannel) throws Exception {
+    when(delegate.createChannel()).thenReturn(publisher, first, second);
+    when(publisher.isOpen()).thenReturn(true);
+    when(first.isOpen()).thenReturn(true);
+    when(second.isOpen()).thenReturn(true);
+    when(first.basicConsume(
+            anyString(), anyBoolean(), anyString(), anyBoolean(), anyBoolean(), any(), any()))
+        .then(inv -> inv.getArgument(2));
+    when(second.basicConsume(
+            anyString(), anyBoolean(), anyString(), anyBoolean(), anyBoolean(), any(), any()))
+        .then(inv -> inv.getArgument(2));
+    return new MultiPlexingConnection(delegate, maxConsumersPerChannel).createChannel();
+  }
+
+  private static void consume(Channel channel, String tag) throws Exception {
+    channel.basicConsume("q-" + tag, false, tag, false, false, null, new DefaultConsumer(channel));
+  }
+
+  @Test
+  void opensChannelPerConsumerByDefault() throws Exception {
+    Channel channel = channel(1);
+    consume(channel, "a");
+    consume(channel, "b");
+    verify(first).basicConsume(eq("q-a"), eq(false), eq("a"), eq(false), eq(false), any(), any());
+    verify(second).basicConsume(eq("q-b"), eq(false), eq("b"), eq(false), eq(false), any(), any());
+  }
+
+  @Test
+  void sharesChannelsUpToLimit() throws Exception {
+    Channel channel = channel(2);
+    channel.basicQos(10, true);
+    consume(channel, "a");
+    consume(channel, "b");
+    consume(channel, "c");
+    verify(delegate, times(3)).createChannel();
+    verify(first).basicQos(0, 20, true);
+    verify(second).basicQos(0, 10, true);
+
+    channel.basicCancel("a");
+    verify(first).basicCancel("a");
+    verify(first, times(2)).basicQos(0, 10, true);
+    consume(channel, "d");
+    verify(first).basicConsume(eq("q-d"), eq(false), eq("d"), eq(false), eq(false), any(), any());
+
+    channel.close();
+    verify(first).close(anyInt(), anyString());
+    verify(second).close(anyInt(), anyString());
+  }
+
+  @Test
+  void reusesChannelsOfCancelledConsumers() throws Exception {
+    Channel channel = channel(1);
+    consume(channel, "a");
+    channel.basicCancel("a");
+    consume(channel, "b");
+    verify(first).basicConsume(eq("q-b"), eq(false), eq("b"), eq(false), eq(false), any(), any());
+    verify(delegate, times(2)).createChannel();
+  }
+
+  @Test
+  void consumesOnSeparateConnection() throws Exception {
+    when(delegate.createChannel()).thenReturn(publisher);
+    when(consumeDelegate.createChannel()).thenReturn(first);
+    when(publisher.isOpen()).thenReturn(true);
+    MultiPlexingConnection connection = new MultiPlexingConnection(delegate, consumeDelegate, 1);
+    Channel channel = connection.createChannel();
+    consume(channel, "a");
+    channel.basicPublish("x", "k", null, new byte[0]);
+
+    verify(first).basicConsume(eq("q-a"), eq(false), eq("a"), eq(false), eq(false), any(), any());
+    verify(publisher).basicPublish("x", "k", false, false, null, new byte[0]);
+    verify(delegate, times(1)).createChannel();
+
+    connection.close();
+    verify(delegate).close(anyInt(), anyString(), anyInt());
+    verify(consumeDelegate).close(anyInt(), anyString(), anyInt());
+  }
+}
@@ -0,0 +1,185 @@
+package com.xing.beetle.amqp;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PartitionedConsumerTest {
+
+  private static AMQP.BasicProperties header(String value) {
+    return new AMQP.BasicProperties.Builder().headers(Map.of("customer", value)).build();
+  }
+
+  @Test
+  void messagesWithTheSameKeyKeepTheirOrder() throws Exception {
+    List<Long> handled = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch done = new CountDownLatch(100);
+    PartitionedConsumer consumer =
+        new PartitionedConsumer(
+            new DefaultConsumer(null) {
+              @Override
+              public void handleDelivery(
+                  String tag, Envelope envelope, AMQP.BasicProperties props, byte[] body) {
+                handled.add(envelope.getDeliveryTag());
+                done.countDown();
+              }
+            },
+            4,
+            "header:customer");
+    for (long tag = 1; tag <= 100; tag++) {
+      consumer.handleDelivery("c", new Envelope(tag, false, "", "q"), header("42"), new byte[0]);
+    }
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(LongStream.rangeClosed(1, 100).boxed().collect(Collectors.toList()), handled);
+  }
+
+  @Test
+  void messagesWithDifferentKeysAreHandledInParallel() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch other = new CountDownLatch(1);
+    PartitionedConsumer consumer =
+        new PartitionedConsumer(
+            new DefaultConsumer(null) {
+              @Override
+              public void handleDelivery(
+                  String tag, Envelope envelope, AMQP.BasicProperties props, byte[] body) {
+                if (envelope.getRoutingKey().equals("slow")) {
+                  try {
+                    release.await(5, TimeUnit.SECONDS);
+                  } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                  }
+                } else {
+                  other.countDown();
+                }
+              }
+            },
+            2,
+            PartitionedConsumer.ROUTING_KEY);
+    // both keys map to different lanes of two
+    assertNotEquals(
+        Math.floorMod("slow".hashCode(), 2), Math.floorMod("fast".hashCode(), 2), "test keys");
+    consumer.handleDelivery("c", new Envelope(1, false, "", "slow"), null, new byte[0]);
+    consumer.handleDelivery("c", new Envelope(2, false, "", "fast"), null, new byte[0]);
+    assertTrue(other.await(5, TimeUnit.SECONDS));
+    release.countDown();
+  }
+
+  @Test
+  void unorderedMessagesAreHandledOnThreadsOfTheirOwn() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch others = new CountDownLatch(2);
+    PartitionedConsumer consumer =
+        PartitionedConsumer.unordered(
+            new DefaultConsumer(null) {
+              @Override
+              public void handleDelivery(
+                  String tag, Envelope envelope, AMQP.BasicProperties props, byte[] body) {
+                if (envelope.getDeliveryTag() == 1) {
+                  try {
+                    release.await(5, TimeUnit.SECONDS);
+                  } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                  }
+                } else {
+                  others.countDown();
+                }
+              }
+            },
+            (tag, envelope, e) -> {});
+    // the same key doesn't serialize the messages
+    consumer.handleDelivery("c", new Envelope(1, false, "", "q"), header("42"), new byte[0]);
+    consumer.handleDelivery("c", new Envelope(2, false, "", "q"), header("42"), new byte[0]);
+    consumer.handleDelivery("c", new Envelope(3, false, "", "q"), header("42"), new byte[0]);
+    assertTrue(others.await(5, TimeUnit.SECONDS));
+    assertTrue(consumer.isPending(1));
+    release.countDown();
+  }
+
+  @Test
+  void cancelOkWaitsForThePendingMessages() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    List<String> events = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch cancelled = new CountDownLatch(1);
+    PartitionedConsumer consumer =
+        new PartitionedConsumer(
+            new DefaultConsumer(null) {
+              @Override
+              public void handleDelivery(
+                  String tag, Envelope envelope, AMQP.BasicProperties props, byte[] body) {
+                try {
+                  release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                }
+                events.add("delivery");
+              }
+
+              @Override
+              public void handleCancelOk(String tag) {
+                events.add("cancelOk");
+                cancelled.countDown();
+              }
+            },
+            2,
+            PartitionedConsumer.ROUTING_KEY);
+    consumer.handleDelivery("c", new Envelope(1, false, "", "q"), null, new byte[0]);
+    consumer.handleCancelOk("c");
+    assertTrue(events.isEmpty());
+
+    release.countDown();
+    assertTrue(cancelled.await(5, TimeUnit.SECONDS));
+    assertEquals(List.of("delivery", "cancelOk"), events);
+  }
+
+  @Test
+  void unknownKeysAreRejected() {
+    DefaultConsumer delegate = new DefaultConsumer(null);
+    assertThrows(IllegalArgumentException.class, () -> new PartitionedConsumer(delegate, 2, "id"));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> new PartitionedConsumer(delegate, 2, PartitionedConsumer.HEADER_PREFIX));
+  }
+
+  @Test
+  void failuresAreHandedToTheFailureHandler() throws Exception {
+    List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch done = new CountDownLatch(2);
+    PartitionedConsumer consumer =
+        new PartitionedConsumer(
+            new DefaultConsumer(null) {
+              @Override
+              public void handleDelivery(
+                  String tag, Envelope envelope, AMQP.BasicProperties props, byte[] body) {
+                done.countDown();
+                if (envelope.getDeliveryTag() == 1) {
+                  throw new AssertionError("handler failed");
+                }
+              }
+            },
+            2,
+            PartitionedConsumer.ROUTING_KEY,
+            (tag, envelope, e) -> failures.add(e));
+    consumer.handleDelivery("c", new Envelope(1, false, "", "q"), null, new byte[0]);
+    // the lane keeps going
+    consumer.handleDelivery("c", new Envelope(2, false, "", "q"), null, new byte[0]);
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    Thread.sleep(100);
+    assertEquals(1, failures.size());
+    assertEquals("handler failed", failures.get(0).getMessage());
+    assertFalse(consumer.isPending(1));
+    assertFalse(consumer.isPending(2));
+  }
+}
@@ -0,0 +1,149 @@
+package com.xing.beetle.amqp;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.xing.beetle.util.RetryExecutor;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class PolicyPublisherTest {
+
+  @Mock private Connection connection;
+
+  @Mock private Channel channel;
+
+  private final BeetleAmqpConfiguration configuration = new BeetleAmqpConfiguration();
+
+  private PolicyPublisher publisher;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    when(connection.createChannel()).thenReturn(channel);
+    when(channel.isOpen()).thenReturn(true);
+    publisher = new PolicyPublisher(connection, configuration);
+  }
+
+  private void verifyPublished(String payload, int times) throws IOException {
+    verify(channel, timeout(3000).times(times))
+        .basicPublish(
+            eq(configuration.getBeetlePolicyExchangeName()),
+            eq(configuration.getBeetlePolicyUpdatesRoutingKey()),
+            isNull(),
+            eq(payload.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  @Test
+  void coalescesPayloadsPerQueue() throws Exception {
+    publisher.publish("q", "first");
+    publisher.publish("q", "second");
+    publisher.publish("r", "other");
+    verifyPublished("second", 1);
+    verifyPublished("other", 1);
+    verifyPublished("first", 0);
+
+    publisher.publish("q", "second");
+    Thread.sleep(200);
+    verifyPublished("second", 1);
+
+    publisher.reset();
+    publisher.publish("q", "second");
+    verifyPublished("second", 2);
+  }
+
+  @Test
+  void retriesFailedPublishing() throws Exception {
+    doThrow(new IOException("blocked"))
+        .doNothing()
+        .when(channel)
+        .basicPublish(anyString(), anyString(), any(), any());
+    publisher.publish("q", "payload");
+    verifyPublished("payload", 2);
+  }
+
+  @Test
+  void givingUpKeepsPayloadsQueuedInTheMeantime() throws Exception {
+    PolicyPublisher giveUpImmediately =
+        new PolicyPublisher(
+            connection,
+            configuration,
+            RetryExecutor.Backoff.fixed(0, TimeUnit.MILLISECONDS).withMaxAttempts(0));
+    byte[] failing = "failing".getBytes(StandardCharsets.UTF_8);
+    doAnswer(
+            invocation -> {
+              giveUpImmediately.publish("r", "newer");
+              throw new IOException("blocked");
+            })
+        .when(channel)
+        .basicPublish(anyString(), anyString(), any(), eq(failing));
+    giveUpImmediately.publish("q", "failing");
+    verifyPublished("newer", 1);
+    verifyPublished("failing", 1);
+  }
+
+  @Test
+  void closingClosesTheChannelAndDiscardsPayloads() throws Exception {
+    publisher.publish("q", "payload");
+    verifyPublished("payload", 1);
+
+    publisher.close();
+    verify(channel).close();
+    publisher.publish("r", "payload");
+    Thread.sleep(200);
+    verifyPublished("payload", 1);
+    verify(connection, times(1)).createChannel();
+  }
+
+  @Test
+  void unconfirmedPayloadsArePublishedAgain() throws Exception {
+    doThrow(new TimeoutException("blocked"))
+        .doNothing()
+        .when(channel)
+        .waitForConfirmsOrDie(anyLong());
+    publisher.publish("q", "payload");
+    verifyPublished("payload", 2);
+    verify(channel, atLeastOnce()).confirmSelect();
+    verify(channel, times(2))
+        .waitForConfirmsOrDie(
+            TimeUnit.SECONDS.toMillis(configuration.getPolicyPublishTimeoutSeconds()));
+  }
+
+  @Test
+  void closingStopsThePublishingThread() throws Exception {
+    CountDownLatch waiting = new CountDownLatch(1);
+    CountDownLatch interrupted = new CountDownLatch(1);
+    doAnswer(
+            invocation -> {
+              waiting.countDown();
+              try {
+                Thread.sleep(10_000);
+              } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw e;
+              }
+              return null;
+            })
+        .when(channel)
+        .waitForConfirmsOrDie(anyLong());
+    publisher.publish("q", "payload");
+    assertTrue(waiting.await(3, TimeUnit.SECONDS));
+
+    publisher.close();
+    assertTrue(interrupted.await(3, TimeUnit.SECONDS));
+  }
+}
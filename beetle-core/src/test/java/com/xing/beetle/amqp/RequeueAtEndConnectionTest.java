@@ -0,0 +1,223 @@
+package com.xing.beetle.amqp;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.BuiltinExchangeType;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Consumer;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.GetResponse;
+import com.rabbitmq.client.RecoverableConnection;
+import com.xing.beetle.BeetleHeader;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class RequeueAtEndConnectionTest {
+
+  @Mock private RecoverableConnection delegate;
+
+  @Mock private Channel delegateChannel;
+
+  @Mock private AMQP.Queue.DeclareOk declareOk;
+
+  private final BeetleAmqpConfiguration configuration = new BeetleAmqpConfiguration();
+
+  @BeforeEach
+  void setUp() throws Exception {
+    when(delegate.createChannel()).thenReturn(delegateChannel);
+    when(delegate.getAddress()).thenReturn(InetAddress.getLoopbackAddress());
+    when(delegateChannel.getConnection()).thenReturn(delegate);
+    when(delegateChannel.queueDeclare(anyString(), anyBoolean(), anyBoolean(), anyBoolean(), any()))
+        .thenReturn(declareOk);
+  }
+
+  @Test
+  void repeatedDeclarationsAreCached() throws Exception {
+    RequeueAtEndConnection connection = new RequeueAtEndConnection(delegate, configuration, false);
+    Channel channel = connection.createChannel();
+    Channel other = connection.createChannel();
+
+    assertSame(declareOk, channel.queueDeclare("q", true, false, false, null));
+    assertSame(declareOk, other.queueDeclare("q", true, false, false, null));
+    channel.queueDeclare("r", true, false, false, null);
+
+    verify(delegateChannel).queueDeclare("q", true, false, false, null);
+    verify(delegateChannel).queueDeclare("r", true, false, false, null);
+    verify(delegateChannel)
+        .exchangeDeclare(
+            configuration.getBeetlePolicyExchangeName(), BuiltinExchangeType.TOPIC, true);
+    verify(delegateChannel, timeout(2000).times(2))
+        .basicPublish(eq(configuration.getBeetlePolicyExchangeName()), anyString(), any(), any());
+  }
+
+  @Test
+  void changedArgumentsAndRecoveryInvalidateTheCache() throws Exception {
+    RequeueAtEndConnection connection = new RequeueAtEndConnection(delegate, configuration, false);
+    verify(delegate).addRecoveryListener(connection);
+    Channel channel = connection.createChannel();
+    Map<String, Object> lazy = Map.of("x-queue-mode", "lazy");
+
+    channel.queueDeclare("q", true, false, false, null);
+    channel.queueDeclare("q", true, false, false, lazy);
+    verify(delegateChannel).queueDeclare("q", true, false, false, lazy);
+
+    connection.handleRecovery(delegate);
+    channel.queueDeclare("q", true, false, false, lazy);
+    verify(delegateChannel, times(2)).queueDeclare("q", true, false, false, lazy);
+    verify(delegateChannel, times(2))
+        .exchangeDeclare(
+            configuration.getBeetlePolicyExchangeName(), BuiltinExchangeType.TOPIC, true);
+
+    channel.queueDelete("q");
+    channel.queueDeclare("q", true, false, false, lazy);
+    verify(delegateChannel, times(3)).queueDeclare("q", true, false, false, lazy);
+  }
+
+  @Test
+  void autoDeleteQueuesAndCancelledConsumersBypassTheCache() throws Exception {
+    when(delegateChannel.basicConsume(
+            anyString(), anyBoolean(), anyString(), anyBoolean(), anyBoolean(), any(), any()))
+        .thenAnswer(invocation -> invocation.getArgument(2));
+    RequeueAtEndConnection connection = new RequeueAtEndConnection(delegate, configuration, false);
+    Channel channel = connection.createChannel();
+
+    channel.queueDeclare("temp", false, false, true, null);
+    channel.queueDeclare("temp", false, false, true, null);
+    verify(delegateChannel, times(2)).queueDeclare("temp", false, false, true, null);
+
+    channel.queueDeclare("q", true, false, false, null);
+    channel.basicConsume("q", false, "tag", new DefaultConsumer(channel));
+    channel.queueDeclare("q", true, false, false, null);
+    verify(delegateChannel).queueDeclare("q", true, false, false, null);
+    channel.basicCancel("tag");
+    channel.queueDeclare("q", true, false, false, null);
+    verify(delegateChannel, times(2)).queueDeclare("q", true, false, false, null);
+  }
+
+  @Test
+  void declaresDelayQueuesWhichReturnToTheQueue() throws Exception {
+    configuration.setDelayQueueTiers("10000, 1000");
+    RequeueAtEndConnection connection = new RequeueAtEndConnection(delegate, configuration, false);
+    connection.createChannel().queueDeclare("q", true, false, false, null);
+
+    Map<String, Object> arguments = new HashMap<>();
+    arguments.put("x-dead-letter-exchange", "");
+    arguments.put("x-dead-letter-routing-key", "q");
+    arguments.put("x-message-ttl", 1000L);
+    verify(delegateChannel).queueDeclare("q_delay_1000", true, false, false, arguments);
+    arguments.put("x-message-ttl", 10000L);
+    verify(delegateChannel).queueDeclare("q_delay_10000", true, false, false, arguments);
+  }
+
+  @Test
+  void picksTheLongestDelayQueueNotExceedingTheDelay() {
+    assertEquals(Optional.empty(), RequeueAtEndConnection.delayQueue("q", 5000, configuration));
+    configuration.setDelayQueueTiers("1000,10000");
+    assertEquals(
+        Optional.of("q_delay_1000"), RequeueAtEndConnection.delayQueue("q", 1000, configuration));
+    assertEquals(
+        Optional.of("q_delay_1000"), RequeueAtEndConnection.delayQueue("q", 5000, configuration));
+    assertEquals(
+        Optional.of("q_delay_10000"), RequeueAtEndConnection.delayQueue("q", 60000, configuration));
+  }
+
+  @Test
+  void delaysShorterThanTheShortestDelayQueueAreNotParked() {
+    configuration.setDelayQueueTiers("10000,1000");
+    assertEquals(Optional.empty(), RequeueAtEndConnection.delayQueue("q", 0, configuration));
+    assertEquals(Optional.empty(), RequeueAtEndConnection.delayQueue("q", 999, configuration));
+  }
+
+  private RecoverableConnection connection(Channel channel) throws Exception {
+    RecoverableConnection connection = mock(RecoverableConnection.class);
+    when(connection.createChannel()).thenReturn(channel);
+    when(connection.getAddress()).thenReturn(InetAddress.getLoopbackAddress());
+    when(channel.getConnection()).thenReturn(connection);
+    when(channel.queueDeclare(anyString(), anyBoolean(), anyBoolean(), anyBoolean(), any()))
+        .thenReturn(declareOk);
+    return connection;
+  }
+
+  @Test
+  void queuesDeclaredOnOneConnectionAreDeadLetteredOnAnother() throws Exception {
+    BeetleAmqpConfiguration deadLettering = spy(configuration);
+    doReturn(true).when(deadLettering).isDeadLetteringEnabled();
+    when(declareOk.getQueue()).thenReturn("q_dead_letter");
+    Channel declaring = mock(Channel.class);
+    Channel consuming = mock(Channel.class);
+    Set<String> deadLetterQueues = ConcurrentHashMap.newKeySet();
+    RequeueAtEndConnection publisher =
+        new RequeueAtEndConnection(connection(declaring), deadLettering, true, deadLetterQueues);
+    RequeueAtEndConnection consumer =
+        new RequeueAtEndConnection(connection(consuming), deadLettering, true, deadLetterQueues);
+    when(consuming.basicGet("q", false))
+        .thenReturn(
+            new GetResponse(
+                new Envelope(1, false, "", "q"), new AMQP.BasicProperties(), new byte[0], 0));
+
+    publisher.createChannel().queueDeclare("q", true, false, false, null);
+    Channel channel = consumer.createChannel();
+    channel.basicGet("q", false);
+    channel.basicReject(1, true);
+
+    verify(consuming).basicReject(1, false);
+  }
+
+  @Test
+  void acknowledgedDeliveriesOfDeadLetterQueuesAreForgotten() throws Exception {
+    BeetleAmqpConfiguration deadLettering = spy(configuration);
+    doReturn(true).when(deadLettering).isDeadLetteringEnabled();
+    when(declareOk.getQueue()).thenReturn("q_dead_letter");
+    Channel consuming = mock(Channel.class);
+    RequeueAtEndConnection connection =
+        new RequeueAtEndConnection(
+            connection(consuming), deadLettering, true, ConcurrentHashMap.newKeySet());
+    Map<String, Object> expired = Map.of(BeetleHeader.EXPIRES_AT, 1L);
+    when(consuming.basicConsume(
+            eq("q"), eq(false), eq("tag"), anyBoolean(), anyBoolean(), any(), any()))
+        .then(
+            invocation -> {
+              Consumer consumer = invocation.getArgument(6);
+              for (long tag = 1; tag <= 3; tag++) {
+                consumer.handleDelivery(
+                    "tag",
+                    new Envelope(tag, false, "", "q"),
+                    new AMQP.BasicProperties.Builder().headers(expired).build(),
+                    new byte[0]);
+              }
+              return "tag";
+            });
+
+    Channel channel = connection.createChannel();
+    channel.queueDeclare("q", true, false, false, null);
+    BeetleAmqpConfiguration dropping = new BeetleAmqpConfiguration();
+    dropping.setDropExpiredOnDelivery(true);
+    BeetleChannel beetleChannel = new BeetleChannel(List.of(channel), dropping);
+    beetleChannel.basicConsume("q", false, "tag", new DefaultConsumer(beetleChannel));
+
+    // expired deliveries are dropped through the decorated channel, a reject after that is not
+    // mistaken for the reject of a dead lettered delivery
+    verify(consuming, times(3)).basicAck(anyLong(), eq(false));
+    channel.basicReject(2, true);
+    verify(consuming).basicReject(2, true);
+  }
+}
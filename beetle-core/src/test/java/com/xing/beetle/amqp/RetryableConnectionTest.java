@@ -0,0 +1,96 @@
+package com.xing.beetle.amqp;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.RecoverableConnection;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class RetryableConnectionTest {
+
+  @Mock private RecoverableConnection delegate;
+
+  @Mock private Channel delegateChannel;
+
+  private final CompletableFuture<RecoverableConnection> attempt = new CompletableFuture<>();
+
+  @Test
+  void defersOperationsUntilEstablished() throws Exception {
+    when(delegate.createChannel()).thenReturn(delegateChannel);
+    when(delegate.isOpen()).thenReturn(true);
+    RetryableConnection connection = new RetryableConnection(attempt);
+    Channel channel = connection.createChannel();
+
+    assertFalse(connection.isEstablished());
+    assertNull(channel.queueDeclare("q", true, false, false, null));
+    assertNull(channel.queueBind("q", "x", "k"));
+    assertNull(channel.basicGet("q", false));
+    assertEquals(0, channel.messageCount("q"));
+    assertThrows(IOException.class, () -> channel.basicPublish("x", "k", null, new byte[0]));
+    verifyNoInteractions(delegate);
+
+    attempt.complete(delegate);
+
+    assertTrue(connection.isEstablished());
+    assertTrue(connection.isOpen());
+    InOrder inOrder = inOrder(delegateChannel);
+    inOrder.verify(delegateChannel).queueDeclare("q", true, false, false, null);
+    inOrder.verify(delegateChannel).queueBind("q", "x", "k", null);
+    channel.basicPublish("x", "k", null, new byte[0]);
+    verify(delegateChannel).basicPublish("x", "k", false, false, null, new byte[0]);
+  }
+
+  @Test
+  void decoratesEstablishedConnection() throws Exception {
+    when(delegate.createChannel()).thenReturn(delegateChannel);
+    attempt.complete(delegate);
+    RetryableConnection connection = new RetryableConnection(attempt, MultiPlexingConnection::new);
+    Channel channel = connection.createChannel();
+    channel.queueDeclare("q", true, false, false, null);
+    verify(delegateChannel).queueDeclare("q", true, false, false, null);
+    verify(delegate).addRecoveryListener(connection);
+  }
+
+  @Test
+  void failedDeferredOperationsDoNotBlockLaterOnes() throws Exception {
+    when(delegate.createChannel()).thenReturn(delegateChannel);
+    when(delegateChannel.queueDeclare("q", true, false, false, null))
+        .thenThrow(new IOException("access refused"));
+    RetryableConnection connection = new RetryableConnection(attempt);
+    Channel channel = connection.createChannel();
+    channel.queueDeclare("q", true, false, false, null);
+    channel.queueBind("q", "x", "k");
+
+    attempt.complete(delegate);
+
+    verify(delegateChannel).queueBind("q", "x", "k", null);
+    channel.basicPublish("x", "k", null, new byte[0]);
+    verify(delegateChannel).basicPublish("x", "k", false, false, null, new byte[0]);
+  }
+
+  @Test
+  void isEstablishedOnceDecorated() {
+    RetryableConnection connection = new RetryableConnection(attempt, MultiPlexingConnection::new);
+    CompletableFuture<Connection> established = connection.whenEstablished().toCompletableFuture();
+    assertFalse(established.isDone());
+
+    attempt.complete(delegate);
+
+    assertTrue(established.isDone());
+    assertTrue(connection.isEstablished());
+    verify(delegate).addRecoveryListener(connection);
+  }
+}
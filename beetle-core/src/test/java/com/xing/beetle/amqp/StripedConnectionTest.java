@@ -0,0 +1,57 @@
+package com.xing.beetle.amqp;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class StripedConnectionTest {
+
+  @Mock private Connection first;
+
+  @Mock private Connection second;
+
+  @Mock private Channel firstChannel;
+
+  @Mock private Channel secondChannel;
+
+  private StripedConnection connection() throws Exception {
+    when(first.createChannel()).thenReturn(firstChannel);
+    when(second.createChannel()).thenReturn(secondChannel);
+    return new StripedConnection(Arrays.asList(first, second));
+  }
+
+  @Test
+  void opensChannelsOfAThreadOnTheSameConnection() throws Exception {
+    when(first.isOpen()).thenReturn(true);
+    when(second.isOpen()).thenReturn(true);
+    StripedConnection connection = connection();
+    Channel channel = connection.createChannel();
+    assertSame(channel, connection.createChannel());
+    assertTrue(connection.isOpen());
+
+    connection.close();
+    verify(first).close(anyInt(), anyString(), anyInt());
+    verify(second).close(anyInt(), anyString(), anyInt());
+  }
+
+  @Test
+  void skipsClosedConnections() throws Exception {
+    when(second.isOpen()).thenReturn(true);
+    StripedConnection connection = connection();
+    assertSame(secondChannel, connection.createChannel());
+    verify(first, never()).createChannel();
+  }
+}
@@ -0,0 +1,356 @@
+package com.xing.beetle.dedup.spi;
+
+import com.xing.beetle.amqp.BeetleAmqpConfiguration;
+import com.xing.beetle.amqp.RequeueAtEndConnection;
+import com.xing.beetle.dedup.api.BatchMessageListener;
+import com.xing.beetle.dedup.api.MessageListener;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class DeduplicatorTest {
+
+  static class TestMessage {
+    final String id;
+    final long expiresAt;
+    final boolean redundant;
+
+    TestMessage(String id, long expiresAt, boolean redundant) {
+      this.id = id;
+      this.expiresAt = expiresAt;
+      this.redundant = redundant;
+    }
+  }
+
+  static class TestAdapter implements MessageAdapter<TestMessage> {
+    final List<String> dropped = new ArrayList<>();
+    final List<String> requeued = new ArrayList<>();
+    final List<Long> delays = new ArrayList<>();
+
+    @Override
+    public void drop(TestMessage message) {
+      dropped.add(message.id);
+    }
+
+    @Override
+    public String keyOf(TestMessage message) {
+      return message.id;
+    }
+
+    @Override
+    public void requeue(TestMessage message) {
+      requeued.add(message.id);
+    }
+
+    @Override
+    public void requeueDelayed(TestMessage message, LongSupplier remainingDelay) {
+      delays.add(remainingDelay.getAsLong());
+      requeue(message);
+    }
+
+    @Override
+    public long expiresAt(TestMessage message) {
+      return message.expiresAt;
+    }
+
+    @Override
+    public boolean isRedundant(TestMessage message) {
+      return message.redundant;
+    }
+  }
+
+  static class RecordingListener implements MessageListener<TestMessage> {
+    final List<String> handled = new ArrayList<>();
+    final List<String> failed = new ArrayList<>();
+    final boolean failing;
+
+    RecordingListener(boolean failing) {
+      this.failing = failing;
+    }
+
+    @Override
+    public void onMessage(TestMessage message) {
+      if (failing) {
+        throw new IllegalStateException("failed");
+      }
+      handled.add(message.id);
+    }
+
+    @Override
+    public void onDropped(TestMessage message, String reason) {}
+
+    @Override
+    public void onFailure(TestMessage message, String reason) {
+      failed.add(message.id);
+    }
+  }
+
+  static class RecordingBatchListener implements BatchMessageListener<TestMessage> {
+    final List<List<String>> batches = new ArrayList<>();
+    final boolean failing;
+
+    RecordingBatchListener(boolean failing) {
+      this.failing = failing;
+    }
+
+    @Override
+    public void onMessages(List<TestMessage> messages) {
+      batches.add(messages.stream().map(m -> m.id).collect(Collectors.toList()));
+      if (failing) {
+        throw new IllegalStateException("failed");
+      }
+    }
+
+    @Override
+    public void onDropped(TestMessage message, String reason) {}
+
+    @Override
+    public void onFailure(TestMessage message, String reason) {}
+  }
+
+  @Mock private KeyValueStore store;
+  @Mock private BeetleAmqpConfiguration configuration;
+
+  private final TestAdapter adapter = new TestAdapter();
+  private final RecordingListener listener = new RecordingListener(false);
+
+  private Deduplicator deduplicator() {
+    when(configuration.getMaxHandlerExecutionAttempts()).thenReturn(1L);
+    when(configuration.getHandlerTimeoutSeconds()).thenReturn(10L);
+    // status check: put incomplete status and read it back in one round trip
+    when(store.execute(anyList())).thenReturn(Arrays.asList(true, Optional.empty()));
+    return new KeyValueStoreBasedDeduplicator(store, configuration);
+  }
+
+  private static long inOneHour() {
+    return Instant.now().getEpochSecond() + 3600;
+  }
+
+  @Test
+  void fastPathSkipsStoreForNonRedundantMessages() {
+    when(configuration.isDedupStoreFastPathEnabled()).thenReturn(true);
+    deduplicator().handle(new TestMessage("m1", inOneHour(), false), adapter, listener);
+    assertEquals(List.of("m1"), listener.handled);
+    assertTrue(adapter.dropped.isEmpty());
+    verifyNoInteractions(store);
+  }
+
+  @Test
+  void fastPathDropsExpiredMessages() {
+    when(configuration.isDedupStoreFastPathEnabled()).thenReturn(true);
+    long expired = Instant.now().getEpochSecond() - 10;
+    deduplicator().handle(new TestMessage("m2", expired, false), adapter, listener);
+    assertTrue(listener.handled.isEmpty());
+    assertEquals(List.of("m2"), adapter.dropped);
+    verifyNoInteractions(store);
+  }
+
+  @Test
+  void fastPathDropsFailedMessages() {
+    when(configuration.isDedupStoreFastPathEnabled()).thenReturn(true);
+    RecordingListener failing = new RecordingListener(true);
+    deduplicator().handle(new TestMessage("m3", inOneHour(), false), adapter, failing);
+    assertEquals(List.of("m3"), adapter.dropped);
+    assertEquals(List.of("m3"), failing.failed);
+    assertTrue(adapter.requeued.isEmpty());
+    verifyNoInteractions(store);
+  }
+
+  @Test
+  void redundantMessagesUseStore() {
+    when(configuration.isDedupStoreFastPathEnabled()).thenReturn(true);
+    when(store.putIfAbsentTtl(anyString(), any(), anyInt())).thenReturn(true);
+    when(store.increase(anyString())).thenReturn(1L);
+    deduplicator().handle(new TestMessage("m4", inOneHour(), true), adapter, listener);
+    assertEquals(List.of("m4"), listener.handled);
+    verify(store).put(eq("m4:status"), any());
+  }
+
+  @Test
+  void storeIsUsedWhenFastPathDisabled() {
+    when(store.putIfAbsentTtl(anyString(), any(), anyInt())).thenReturn(true);
+    when(store.increase(anyString())).thenReturn(1L);
+    deduplicator().handle(new TestMessage("m5", inOneHour(), false), adapter, listener);
+    assertEquals(List.of("m5"), listener.handled);
+    verify(store).put(eq("m5:status"), any());
+  }
+
+  @Test
+  void batchIsHandledOnceWithDeduplicatedMessages() {
+    when(configuration.getMutexExpiration()).thenReturn(10);
+    when(configuration.getMaxHandlerExecutionAttempts()).thenReturn(3L);
+    when(configuration.getHandlerTimeoutSeconds()).thenReturn(10L);
+    Deduplicator deduplicator =
+        new KeyValueStoreBasedDeduplicator(new InMemoryKeyValueStore(60), configuration);
+    RecordingBatchListener batchListener = new RecordingBatchListener(false);
+
+    TestMessage a = new TestMessage("a", inOneHour(), true);
+    TestMessage aCopy = new TestMessage("a", inOneHour(), true);
+    TestMessage b = new TestMessage("b", inOneHour(), true);
+    TestMessage expired = new TestMessage("c", Instant.now().getEpochSecond() - 10, true);
+    deduplicator.handleBatch(List.of(a, aCopy, b, expired), adapter, batchListener);
+
+    assertEquals(List.of(List.of("a", "b")), batchListener.batches);
+    assertEquals(List.of("c", "a"), adapter.dropped);
+    assertTrue(adapter.requeued.isEmpty());
+
+    deduplicator.handleBatch(
+        List.of(new TestMessage("b", inOneHour(), true)), adapter, batchListener);
+    assertEquals(1, batchListener.batches.size());
+    assertEquals(List.of("c", "a", "b"), adapter.dropped);
+  }
+
+  @Test
+  void failedBatchIsRequeued() {
+    when(configuration.getMutexExpiration()).thenReturn(10);
+    when(configuration.getMaxHandlerExecutionAttempts()).thenReturn(3L);
+    when(configuration.getHandlerTimeoutSeconds()).thenReturn(10L);
+    when(configuration.getExceptionLimit()).thenReturn(3L);
+    Deduplicator deduplicator =
+        new KeyValueStoreBasedDeduplicator(new InMemoryKeyValueStore(60), configuration);
+    RecordingBatchListener batchListener = new RecordingBatchListener(true);
+
+    TestMessage a = new TestMessage("a", inOneHour(), true);
+    TestMessage aCopy = new TestMessage("a", inOneHour(), true);
+    TestMessage b = new TestMessage("b", inOneHour(), false);
+    assertThrows(
+        IllegalStateException.class,
+        () -> deduplicator.handleBatch(List.of(a, aCopy, b), adapter, batchListener));
+    assertEquals(List.of(List.of("a", "b")), batchListener.batches);
+    assertEquals(List.of("a", "b", "a"), adapter.requeued);
+    assertTrue(adapter.dropped.isEmpty());
+  }
+
+  @Test
+  void failedMessageIsDelayedBySecondsAndParkedInTheMatchingTier() {
+    when(configuration.getMutexExpiration()).thenReturn(10);
+    when(configuration.getMaxHandlerExecutionAttempts()).thenReturn(3L);
+    when(configuration.getHandlerTimeoutSeconds()).thenReturn(10L);
+    when(configuration.getExceptionLimit()).thenReturn(3L);
+    when(configuration.getHandlerExecutionAttemptsDelaySeconds()).thenReturn(10);
+    when(configuration.getMaxhandlerExecutionAttemptsDelay()).thenReturn(60);
+    when(configuration.getDelayQueueTiers()).thenReturn("1000,10000,30000");
+    Deduplicator deduplicator =
+        new KeyValueStoreBasedDeduplicator(new InMemoryKeyValueStore(60), configuration);
+
+    // the first attempt is delayed by 10 seconds * 2
+    assertThrows(
+        IllegalStateException.class,
+        () ->
+            deduplicator.handle(
+                new TestMessage("m9", inOneHour(), true), adapter, new RecordingListener(true)));
+    // a redelivery while still delayed is requeued with the remaining delay
+    deduplicator.handle(new TestMessage("m9", inOneHour(), true), adapter, listener);
+
+    assertEquals(List.of("m9", "m9"), adapter.requeued);
+    assertTrue(listener.handled.isEmpty());
+    for (long delay : adapter.delays) {
+      assertTrue(delay > 19_000 && delay <= 20_000, "unexpected delay " + delay);
+      assertEquals(
+          Optional.of("q_delay_10000"),
+          RequeueAtEndConnection.delayQueue("q", delay, configuration));
+    }
+    assertTrue(deduplicator.remainingDelay("m9") > 19_000);
+  }
+
+  @Test
+  void handlerOnOwnThreadIsCancelledAndAwaitedAfterTimeout() {
+    when(configuration.isDedupStoreFastPathEnabled()).thenReturn(true);
+    when(configuration.isHandlerThreadPerMessage()).thenReturn(true);
+    Deduplicator deduplicator = deduplicator();
+    when(configuration.getHandlerTimeoutSeconds()).thenReturn(1L);
+    AtomicBoolean interrupted = new AtomicBoolean();
+    AtomicBoolean stopped = new AtomicBoolean();
+    RecordingListener blocking =
+        new RecordingListener(false) {
+          @Override
+          public void onMessage(TestMessage message) {
+            try {
+              Thread.sleep(5000);
+            } catch (InterruptedException e) {
+              interrupted.set(true);
+              // takes a while to stop
+              long until = System.currentTimeMillis() + 300;
+              while (System.currentTimeMillis() < until) {
+                Thread.onSpinWait();
+              }
+            }
+            stopped.set(true);
+          }
+        };
+    deduplicator.handle(new TestMessage("m6", inOneHour(), false), adapter, blocking);
+    assertTrue(interrupted.get());
+    assertTrue(stopped.get());
+    assertEquals(List.of("m6"), adapter.dropped);
+    assertEquals(List.of("m6", "m6"), blocking.failed);
+
+    deduplicator.handle(new TestMessage("m7", inOneHour(), false), adapter, listener);
+    assertEquals(List.of("m7"), listener.handled);
+  }
+
+  @Test
+  void redundantCopyWaitsForTheOriginalInTheSameProcess() throws Exception {
+    when(configuration.getMutexExpiration()).thenReturn(10);
+    when(configuration.getMaxHandlerExecutionAttempts()).thenReturn(1L);
+    when(configuration.getHandlerTimeoutSeconds()).thenReturn(10L);
+    when(configuration.getLocalMutexWaitMs()).thenReturn(5000L);
+    Deduplicator deduplicator =
+        new KeyValueStoreBasedDeduplicator(new InMemoryKeyValueStore(60), configuration);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    RecordingListener blocking =
+        new RecordingListener(false) {
+          @Override
+          public void onMessage(TestMessage message) {
+            started.countDown();
+            try {
+              release.await();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+            super.onMessage(message);
+          }
+        };
+
+    Thread original =
+        new Thread(
+            () -> deduplicator.handle(new TestMessage("m8", inOneHour(), true), adapter, blocking));
+    original.start();
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    Thread copy =
+        new Thread(
+            () -> deduplicator.handle(new TestMessage("m8", inOneHour(), true), adapter, blocking));
+    copy.start();
+    Thread.sleep(200);
+    release.countDown();
+    original.join(5000);
+    copy.join(5000);
+
+    assertEquals(List.of("m8"), blocking.handled);
+    assertEquals(List.of("m8"), adapter.dropped);
+    assertTrue(adapter.requeued.isEmpty());
+  }
+}
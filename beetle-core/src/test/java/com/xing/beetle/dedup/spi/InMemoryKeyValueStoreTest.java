@@ -0,0 +1,62 @@
+package com.xing.beetle.dedup.spi;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InMemoryKeyValueStoreTest {
+
+  private final InMemoryKeyValueStore store = new InMemoryKeyValueStore(60);
+
+  @Test
+  void testBasicOperations() {
+    assertEquals("0", store.putIfAbsent("key", new KeyValueStore.Value("0")).getAsString());
+    assertEquals("0", store.putIfAbsent("key", new KeyValueStore.Value("5")).getAsString());
+    assertEquals(1, store.increase("key"));
+    assertEquals("1", store.get("key").get().getAsString());
+    store.delete("key");
+    assertFalse(store.get("key").isPresent());
+    assertEquals(1, store.increase("key"));
+  }
+
+  @Test
+  void testMultiKeyDeletion() {
+    store.put("key3", new KeyValueStore.Value("3"));
+    store.put("key4", new KeyValueStore.Value("4"));
+    store.delete("key3", "key4");
+    assertFalse(store.get("key3").isPresent());
+    assertFalse(store.get("key4").isPresent());
+  }
+
+  @Test
+  void testPutIfAbsentWithTTL() throws InterruptedException {
+    assertTrue(store.putIfAbsentTtl("keyTTL", new KeyValueStore.Value("ttl"), 1));
+    assertFalse(store.putIfAbsentTtl("keyTTL", new KeyValueStore.Value("other"), 1));
+    assertEquals("ttl", store.get("keyTTL").get().getAsString());
+    Thread.sleep(1100);
+    assertFalse(store.get("keyTTL").isPresent());
+    assertTrue(store.putIfAbsentTtl("keyTTL", new KeyValueStore.Value("other"), 1));
+  }
+
+  @Test
+  void testExecuteCommands() {
+    KeyValueStore.Command<Optional<KeyValueStore.Value>> read = KeyValueStore.Command.get("cmd1");
+    List<Object> results =
+        store.execute(
+            Arrays.asList(
+                KeyValueStore.Command.putIfAbsentTtl("cmd1", new KeyValueStore.Value("a"), 10),
+                KeyValueStore.Command.putIfAbsentTtl("cmd1", new KeyValueStore.Value("b"), 10),
+                read,
+                KeyValueStore.Command.increase("cmd2"),
+                KeyValueStore.Command.delete("cmd1", "cmd2"),
+                KeyValueStore.Command.get("cmd2")));
+    assertEquals(Arrays.asList(true, false), results.subList(0, 2));
+    assertEquals("a", read.resultOf(results.get(2)).get().getAsString());
+    assertEquals(1L, results.get(3));
+    assertFalse(((Optional<?>) results.get(5)).isPresent());
+  }
+}
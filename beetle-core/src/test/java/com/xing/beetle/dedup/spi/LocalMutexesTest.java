@@ -0,0 +1,63 @@
+package com.xing.beetle.dedup.spi;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalMutexesTest {
+
+  private final LocalMutexes mutexes = new LocalMutexes();
+
+  private static boolean tryLockOnAnotherThread(
+      LocalMutexes mutexes, String queue, String messageId, long waitMillis) throws Exception {
+    return CompletableFuture.supplyAsync(
+            () -> {
+              boolean locked = mutexes.tryLock(queue, messageId, waitMillis);
+              if (locked) {
+                mutexes.unlock(queue, messageId);
+              }
+              return locked;
+            })
+        .get(5, TimeUnit.SECONDS);
+  }
+
+  private boolean tryLockOnAnotherThread(String messageId, long waitMillis) throws Exception {
+    return tryLockOnAnotherThread(mutexes, "q", messageId, waitMillis);
+  }
+
+  @Test
+  void onlyTheSameMessageIdIsSerialized() throws Exception {
+    assertTrue(mutexes.tryLock("q", "a", 0));
+    try {
+      assertFalse(tryLockOnAnotherThread("a", 50));
+      assertTrue(tryLockOnAnotherThread("b", 0));
+    } finally {
+      mutexes.unlock("q", "a");
+    }
+    assertTrue(tryLockOnAnotherThread("a", 0));
+  }
+
+  @Test
+  void locksAreRemovedOnceReleased() throws Exception {
+    assertTrue(mutexes.tryLock("q", "c", 0));
+    assertFalse(tryLockOnAnotherThread("c", 10));
+    assertEquals(1, mutexes.size());
+    mutexes.unlock("q", "c");
+    assertEquals(0, mutexes.size());
+  }
+
+  @Test
+  void otherQueuesAndDeduplicatorsAreNotSerialized() throws Exception {
+    assertTrue(mutexes.tryLock("q", "d", 0));
+    try {
+      assertTrue(tryLockOnAnotherThread(mutexes, "r", "d", 0));
+      assertTrue(tryLockOnAnotherThread(mutexes, null, "d", 0));
+      assertTrue(tryLockOnAnotherThread(new LocalMutexes(), "q", "d", 0));
+    } finally {
+      mutexes.unlock("q", "d");
+    }
+  }
+}
@@ -34,4 +34,12 @@ public class RingStreamTest {
     assertTrue(s.streamLimited(2).noneMatch("bar"::equals));
     assertTrue(s.streamLimited(2).noneMatch("foo"::equals));
   }
+
+  @Test
+  public void testWithAndWithout() {
+    RingStream<String> s = new RingStream<>("foo", "bar").with("baz").without("foo");
+    assertEquals(2, s.size());
+    assertTrue(s.streamAll().noneMatch("foo"::equals));
+    assertEquals(1, s.streamAll().filter("baz"::equals).count());
+  }
 }
@@ -41,4 +41,16 @@ class Failover {
       lock.unlock();
     }
   }
+
+  /** Executes the method once, for requests which must not be applied twice. */
+  <T> T executeOnce(ExceptionSupport.Supplier<? extends T> supplier) {
+    lock.lock();
+    try {
+      return supplier.get();
+    } catch (Exception e) {
+      throw new DeduplicationException("Deduplication store request failed", e);
+    } finally {
+      lock.unlock();
+    }
+  }
 }
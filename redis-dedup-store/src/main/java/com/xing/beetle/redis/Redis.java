@@ -4,6 +4,7 @@ import com.xing.beetle.amqp.BeetleAmqpConfiguration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.exceptions.JedisConnectionException;
 
 import java.io.File;
@@ -11,15 +12,19 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.List;
+import java.util.function.Function;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
-/** Encapsulates a Redis client (Jedis) which can switch connections when update() is called. */
+/**
+ * Encapsulates a pool of Redis clients (Jedis) which can switch connections when update() is
+ * called. A Jedis is not thread safe, so each request borrows one of its own.
+ */
 public class Redis {
   private static Logger logger = LoggerFactory.getLogger(Redis.class);
   private BeetleAmqpConfiguration config;
   private String activeMaster = "";
-  private Jedis client;
+  private JedisPool pool;
   private long lastMasterChanged;
   private ReentrantLock lock = new ReentrantLock();
   private Condition connected = lock.newCondition();
@@ -41,14 +46,21 @@ public class Redis {
     return activeMaster;
   }
 
-  Jedis getClient() {
+  /** Runs the request with a client borrowed from the pool for its duration. */
+  <T> T withClient(Function<Jedis, T> request) {
+    try (Jedis client = getPool().getResource()) {
+      return request.apply(client);
+    }
+  }
+
+  private JedisPool getPool() {
     lock.lock();
     try {
-      while (client == null) {
+      while (pool == null) {
         connected.await();
       }
       connected.signalAll();
-      return client;
+      return pool;
     } catch (InterruptedException e) {
       throw new DeduplicationException("Client is not connected!", e);
     } finally {
@@ -80,15 +92,16 @@ public class Redis {
     } else {
       try {
         activeMaster = serverAddress;
-        if (activeMaster.isEmpty() && client != null) {
-          client.disconnect();
+        if (activeMaster.isEmpty() && pool != null) {
+          pool.close();
         } else {
-          if (client != null) {
-            client.disconnect();
+          if (pool != null) {
+            pool.close();
           }
           String[] parts = activeMaster.split(":", 2);
-          client = new Jedis(parts[0], Integer.parseInt(parts[1]));
-          client.connect();
+          pool = new JedisPool(parts[0], Integer.parseInt(parts[1]));
+          // borrowing a client connects it, which fails early for unreachable servers
+          pool.getResource().close();
         }
       } catch (JedisConnectionException e) {
         throw new DeduplicationException(
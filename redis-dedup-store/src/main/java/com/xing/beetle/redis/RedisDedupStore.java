@@ -2,8 +2,14 @@ package com.xing.beetle.redis;
 
 import com.xing.beetle.amqp.BeetleAmqpConfiguration;
 import com.xing.beetle.dedup.spi.KeyValueStore;
+import com.xing.beetle.util.ExceptionSupport;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
 import redis.clients.jedis.params.SetParams;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 
 /**
@@ -23,7 +29,7 @@ public class RedisDedupStore implements KeyValueStore {
 
   @Override
   public Optional<Value> get(String key) {
-    String result = this.failover.execute(() -> redis.getClient().get(key));
+    String result = this.failover.execute(() -> redis.withClient(client -> client.get(key)));
     if (result == null) {
       return Optional.empty();
     } else {
@@ -33,48 +39,110 @@ public class RedisDedupStore implements KeyValueStore {
 
   @Override
   public void delete(String key) {
-    this.failover.execute(() -> redis.getClient().del(key));
+    this.failover.execute(() -> redis.withClient(client -> client.del(key)));
   }
 
   @Override
   public Value putIfAbsent(String key, Value value) {
-    this.failover.execute(() -> redis.getClient().setnx(key, value.getAsString()));
+    this.failover.execute(() -> redis.withClient(client -> client.setnx(key, value.getAsString())));
     return get(key).get();
   }
 
   @Override
   public boolean putIfAbsentTtl(String key, Value value, int secondsToExpire) {
-    String result = "";
-    if (secondsToExpire > 0) {
-      result =
-          this.failover.execute(
-              () ->
-                  redis
-                      .getClient()
-                      .set(
-                          key,
-                          value.getAsString(),
-                          SetParams.setParams().nx().ex(secondsToExpire)));
-    } else {
-      result =
-          this.failover.execute(
-              () -> redis.getClient().set(key, value.getAsString(), SetParams.setParams().nx()));
-    }
+    String result =
+        this.failover.execute(
+            () ->
+                redis.withClient(
+                    client ->
+                        client.set(key, value.getAsString(), putIfAbsentParams(secondsToExpire))));
     return result != null && result.equals("OK");
   }
 
   @Override
   public void put(String key, Value value) {
-    this.failover.execute(() -> redis.getClient().set(key, value.getAsString()));
+    this.failover.execute(() -> redis.withClient(client -> client.set(key, value.getAsString())));
   }
 
   @Override
   public void delete(String... keys) {
-    this.failover.execute(() -> redis.getClient().del(keys));
+    this.failover.execute(() -> redis.withClient(client -> client.del(keys)));
   }
 
   @Override
   public long increase(String key) {
-    return this.failover.execute(() -> redis.getClient().incr(key));
+    return this.failover.execute(() -> redis.withClient(client -> client.incr(key)));
+  }
+
+  private static SetParams putIfAbsentParams(int secondsToExpire) {
+    return secondsToExpire > 0
+        ? SetParams.setParams().nx().ex(secondsToExpire)
+        : SetParams.setParams().nx();
+  }
+
+  /**
+   * Sends all commands in a single Redis pipeline, a single command is sent as a plain one. A
+   * pipeline incrementing a counter is not retried, as a failure might have hidden that it was
+   * applied.
+   */
+  @Override
+  public List<Object> execute(List<Command<?>> commands) {
+    if (commands.size() == 1) {
+      return KeyValueStore.super.execute(commands);
+    }
+    ExceptionSupport.Supplier<List<Object>> pipelined =
+        () -> redis.withClient(client -> pipelined(client, commands));
+    boolean idempotent =
+        commands.stream().noneMatch(command -> command.getType() == Command.Type.INCREASE);
+    return idempotent ? this.failover.execute(pipelined) : this.failover.executeOnce(pipelined);
+  }
+
+  private static List<Object> pipelined(Jedis client, List<Command<?>> commands) {
+    Pipeline pipeline = client.pipelined();
+    List<Response<?>> responses = new ArrayList<>(commands.size());
+    for (Command<?> command : commands) {
+      switch (command.getType()) {
+        case GET:
+          responses.add(pipeline.get(command.getKey()));
+          break;
+        case PUT:
+          responses.add(pipeline.set(command.getKey(), command.getValue().getAsString()));
+          break;
+        case PUT_IF_ABSENT_TTL:
+          responses.add(
+              pipeline.set(
+                  command.getKey(),
+                  command.getValue().getAsString(),
+                  putIfAbsentParams(command.getSecondsToExpire())));
+          break;
+        case INCREASE:
+          responses.add(pipeline.incr(command.getKey()));
+          break;
+        case DELETE:
+          responses.add(pipeline.del(command.getKeys()));
+          break;
+        default:
+          throw new IllegalArgumentException("Unsupported command " + command.getType());
+      }
+    }
+    pipeline.sync();
+    List<Object> results = new ArrayList<>(commands.size());
+    for (int i = 0; i < commands.size(); i++) {
+      Object response = responses.get(i).get();
+      switch (commands.get(i).getType()) {
+        case GET:
+          results.add(Optional.ofNullable((String) response).map(Value::new));
+          break;
+        case PUT_IF_ABSENT_TTL:
+          results.add("OK".equals(response));
+          break;
+        case INCREASE:
+          results.add(response);
+          break;
+        default:
+          results.add(null);
+      }
+    }
+    return results;
   }
 }
@@ -8,8 +8,13 @@ import static org.mockito.Mockito.when;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import com.xing.beetle.amqp.BeetleAmqpConfiguration;
@@ -113,6 +118,62 @@ class RedisDedupStoreTest {
     store.delete("key");
   }
 
+  @Test
+  void testPipelinedCommands() {
+    when(beetleAmqpConfiguration.getBeetleRedisServer()).thenReturn(redisServer);
+    when(beetleAmqpConfiguration.getRedisFailoverTimeoutSeconds()).thenReturn(3);
+    RedisDedupStore store = new RedisDedupStore(beetleAmqpConfiguration);
+    List<Object> results =
+        store.execute(
+            Arrays.asList(
+                KeyValueStore.Command.putIfAbsentTtl("pipe1", new KeyValueStore.Value("a"), 10),
+                KeyValueStore.Command.putIfAbsentTtl("pipe1", new KeyValueStore.Value("b"), 10),
+                KeyValueStore.Command.get("pipe1"),
+                KeyValueStore.Command.increase("pipe2"),
+                KeyValueStore.Command.delete("pipe1", "pipe2"),
+                KeyValueStore.Command.get("pipe2")));
+    assertEquals(true, results.get(0));
+    assertEquals(false, results.get(1));
+    assertEquals("a", ((Optional<KeyValueStore.Value>) results.get(2)).get().getAsString());
+    assertEquals(1L, results.get(3));
+    assertFalse(((Optional<?>) results.get(5)).isPresent());
+  }
+
+  @Test
+  void testConcurrentPipelines() throws Exception {
+    when(beetleAmqpConfiguration.getBeetleRedisServer()).thenReturn(redisServer);
+    when(beetleAmqpConfiguration.getRedisFailoverTimeoutSeconds()).thenReturn(3);
+    RedisDedupStore store = new RedisDedupStore(beetleAmqpConfiguration);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        String prefix = "concurrent" + t + ":";
+        futures.add(
+            executor.submit(
+                () -> {
+                  for (int i = 0; i < 100; i++) {
+                    String key = prefix + i;
+                    List<Object> results =
+                        store.execute(
+                            Arrays.asList(
+                                KeyValueStore.Command.putIfAbsentTtl(
+                                    key, new KeyValueStore.Value(key), 10),
+                                KeyValueStore.Command.get(key)));
+                    assertEquals(true, results.get(0));
+                    assertEquals(
+                        key, ((Optional<KeyValueStore.Value>) results.get(1)).get().getAsString());
+                  }
+                }));
+      }
+      for (Future<?> future : futures) {
+        future.get(30, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
   @Test
   void testTimeout() {
     GenericContainer localRedis = startRedisContainer();
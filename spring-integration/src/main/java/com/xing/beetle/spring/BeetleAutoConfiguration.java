@@ -3,6 +3,7 @@ package com.xing.beetle.spring;
 import com.xing.beetle.amqp.BeetleAmqpConfiguration;
 import com.xing.beetle.amqp.BeetleConnectionFactory;
 import com.xing.beetle.dedup.spi.Deduplicator;
+import com.xing.beetle.dedup.spi.InMemoryKeyValueStore;
 import com.xing.beetle.dedup.spi.KeyValueStore;
 import com.xing.beetle.dedup.spi.KeyValueStoreBasedDeduplicator;
 import com.xing.beetle.spring.BeetleAutoConfiguration.BeetleConnectionFactoryCreator;
@@ -40,6 +41,14 @@ public class BeetleAutoConfiguration {
     @ConditionalOnMissingBean
     BeetleConnectionFactory beetleConnectionFactory(
         BeetleAmqpConfiguration beetleAmqpConfiguration) {
+      // listener containers hand the deliveries over to their own threads and acknowledge multiple
+      // messages at once, so reordering the deliveries would acknowledge messages early
+      if (beetleAmqpConfiguration.getHandlerLanes() > 1
+          || beetleAmqpConfiguration.isHandlerThreadPerMessage()) {
+        throw new IllegalArgumentException(
+            "beetle.handler_lanes and beetle.handler_thread_per_message are not supported with"
+                + " Spring listener containers, use their concurrency settings instead");
+      }
       BeetleConnectionFactory factory = new BeetleConnectionFactory(beetleAmqpConfiguration);
       factory.setInvertRequeueParameter(true);
       return factory;
@@ -134,7 +143,9 @@ public class BeetleAutoConfiguration {
       BeetleListenerInterceptor interceptor) {
     DirectRabbitListenerContainerFactory factory = new DirectRabbitListenerContainerFactory();
     configurer.configure(factory, connectionFactory);
-    addAdvices(factory, interceptor);
+    if (interceptor.isDeduplicating()) {
+      addAdvices(factory, interceptor);
+    }
     return factory;
   }
 
@@ -150,7 +161,9 @@ public class BeetleAutoConfiguration {
       BeetleListenerInterceptor interceptor) {
     SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
     configurer.configure(factory, connectionFactory);
-    addAdvices(factory, interceptor);
+    if (interceptor.isDeduplicating()) {
+      addAdvices(factory, interceptor);
+    }
     return factory;
   }
 
@@ -165,8 +178,19 @@ public class BeetleAutoConfiguration {
   BeetleListenerInterceptor beetleListenerInterceptor(
       RabbitListenerEndpointRegistry registry,
       Deduplicator deduplicator,
-      BeetleConnectionFactory factory) {
+      BeetleConnectionFactory factory,
+      BeetleAmqpConfiguration beetleAmqpConfiguration) {
+    // deduplication against a store local to this process for listeners with policy LOCAL_ONLY
+    Deduplicator localDeduplicator =
+        new KeyValueStoreBasedDeduplicator(
+            new InMemoryKeyValueStore(beetleAmqpConfiguration.getMessageLifetimeSeconds()),
+            beetleAmqpConfiguration);
     return new BeetleListenerInterceptor(
-        deduplicator, registry, factory.isInvertRequeueParameter());
+        deduplicator,
+        localDeduplicator,
+        registry,
+        factory.isInvertRequeueParameter(),
+        DedupPolicy.parse(beetleAmqpConfiguration.getDefaultDedupPolicy(), DedupPolicy.FULL),
+        DedupPolicy.parseMapping(beetleAmqpConfiguration.getListenerDedupPolicies()));
   }
 }
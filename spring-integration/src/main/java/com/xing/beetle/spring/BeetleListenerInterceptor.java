@@ -1,6 +1,11 @@
 package com.xing.beetle.spring;
 
+import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.Channel;
+import com.xing.beetle.amqp.BeetleAmqpConfiguration;
+import com.xing.beetle.amqp.BeetleChannel;
+import com.xing.beetle.amqp.RequeueAtEndConnection;
+import com.xing.beetle.dedup.api.BatchMessageListener;
 import com.xing.beetle.dedup.api.MessageListener;
 import com.xing.beetle.dedup.spi.Deduplicator;
 import com.xing.beetle.dedup.spi.MessageAdapter;
@@ -9,16 +14,24 @@ import org.aopalliance.intercept.MethodInterceptor;
 import org.aopalliance.intercept.MethodInvocation;
 import org.springframework.amqp.core.AcknowledgeMode;
 import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.connection.ChannelProxy;
 import org.springframework.amqp.rabbit.listener.AbstractMessageListenerContainer;
 import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistry;
+import org.springframework.amqp.rabbit.support.DefaultMessagePropertiesConverter;
+import org.springframework.amqp.rabbit.support.MessagePropertiesConverter;
 import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.context.event.EventListener;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.function.LongSupplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -31,12 +44,20 @@ public class BeetleListenerInterceptor implements MethodInterceptor {
     private final Channel channel;
     private final boolean needToAck;
     private final boolean rejectAndRequeue;
+    private final BeetleAmqpConfiguration configuration;
     private static final int FLAG_REDUNDANT = 1;
+    private static final MessagePropertiesConverter PROPERTIES_CONVERTER =
+        new DefaultMessagePropertiesConverter();
 
-    SpringMessageAdaptor(Channel channel, boolean needToAck, boolean rejectAndRequeue) {
+    SpringMessageAdaptor(
+        Channel channel,
+        boolean needToAck,
+        boolean rejectAndRequeue,
+        BeetleAmqpConfiguration configuration) {
       this.channel = requireNonNull(channel);
       this.needToAck = needToAck;
       this.rejectAndRequeue = rejectAndRequeue;
+      this.configuration = configuration;
     }
 
     @Override
@@ -55,6 +76,11 @@ public class BeetleListenerInterceptor implements MethodInterceptor {
       return message.getMessageProperties().getMessageId();
     }
 
+    @Override
+    public String queueOf(Message message) {
+      return message.getMessageProperties().getConsumerQueue();
+    }
+
     @Override
     public long expiresAt(Message message) {
       Object expiresAt = message.getMessageProperties().getHeader("expires_at");
@@ -94,18 +120,82 @@ public class BeetleListenerInterceptor implements MethodInterceptor {
         }
       }
     }
+
+    /** Parks the message in the matching delay queue if configured, otherwise requeues it. */
+    @Override
+    public void requeueDelayed(Message message, LongSupplier remainingDelay) {
+      MessageProperties properties = message.getMessageProperties();
+      Optional<String> delayQueue =
+          needToAck && configuration != null && properties.getConsumerQueue() != null
+              ? RequeueAtEndConnection.delayQueue(
+                  properties.getConsumerQueue(), remainingDelay.getAsLong(), configuration)
+              : Optional.empty();
+      if (!delayQueue.isPresent()) {
+        requeue(message);
+        return;
+      }
+      AMQP.BasicProperties props = PROPERTIES_CONVERTER.fromMessageProperties(properties, "UTF-8");
+      Channel target =
+          channel instanceof ChannelProxy ? ((ChannelProxy) channel).getTargetChannel() : channel;
+      try {
+        if (target instanceof BeetleChannel) {
+          // the redundant copies are parked by the brokers they were delivered from
+          ((BeetleChannel) target)
+              .basicPublishToOrigin(
+                  properties.getDeliveryTag(), "", delayQueue.get(), props, message.getBody());
+        } else {
+          channel.basicPublish("", delayQueue.get(), props, message.getBody());
+        }
+        channel.basicAck(properties.getDeliveryTag(), false);
+      } catch (IOException e) {
+        ExceptionSupport.sneakyThrow(e);
+      }
+    }
   }
 
   private final Deduplicator store;
+  private final Deduplicator localStore;
   private final RabbitListenerEndpointRegistry registry;
   private final boolean rejectAndRequeue;
+  private final DedupPolicy defaultPolicy;
+  private final Map<String, DedupPolicy> configuredPolicies;
   private Map<String, AcknowledgeMode> acknowledgeModes;
+  private Map<String, DedupPolicy> queuePolicies;
 
   public BeetleListenerInterceptor(
       Deduplicator store, RabbitListenerEndpointRegistry registry, boolean rejectAndRequeue) {
+    this(store, store, registry, rejectAndRequeue, DedupPolicy.FULL, Collections.emptyMap());
+  }
+
+  /**
+   * @param store deduplicator used for listeners with policy FULL, for EXPIRY_ONLY only its expiry
+   *     check is used
+   * @param localStore deduplicator used for listeners with policy LOCAL_ONLY
+   * @param registry registry of all listener containers
+   * @param rejectAndRequeue requeue parameter used when rejecting messages
+   * @param defaultPolicy policy for listeners without a configured policy
+   * @param configuredPolicies policies by listener id or queue name
+   */
+  public BeetleListenerInterceptor(
+      Deduplicator store,
+      Deduplicator localStore,
+      RabbitListenerEndpointRegistry registry,
+      boolean rejectAndRequeue,
+      DedupPolicy defaultPolicy,
+      Map<String, DedupPolicy> configuredPolicies) {
     this.store = requireNonNull(store);
+    this.localStore = requireNonNull(localStore);
     this.registry = requireNonNull(registry);
     this.rejectAndRequeue = rejectAndRequeue;
+    this.defaultPolicy = requireNonNull(defaultPolicy);
+    this.configuredPolicies = new HashMap<>(configuredPolicies);
+    this.queuePolicies = Collections.emptyMap();
+  }
+
+  /** @return false if all listeners use the policy NONE, i.e. the interceptor has nothing to do */
+  boolean isDeduplicating() {
+    return defaultPolicy != DedupPolicy.NONE
+        || configuredPolicies.values().stream().anyMatch(p -> p != DedupPolicy.NONE);
   }
 
   @EventListener
@@ -116,30 +206,104 @@ public class BeetleListenerInterceptor implements MethodInterceptor {
             .map(AbstractMessageListenerContainer.class::cast)
             .flatMap(c -> Stream.of(c.getListenerId()).map(q -> Map.entry(q, c)))
             .collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().getAcknowledgeMode()));
+    Map<String, DedupPolicy> policies = new HashMap<>();
+    registry.getListenerContainers().stream()
+        .filter(AbstractMessageListenerContainer.class::isInstance)
+        .map(AbstractMessageListenerContainer.class::cast)
+        .forEach(
+            c -> {
+              DedupPolicy byId = configuredPolicies.get(c.getListenerId());
+              for (String queue : c.getQueueNames()) {
+                policies.put(
+                    queue,
+                    byId != null ? byId : configuredPolicies.getOrDefault(queue, defaultPolicy));
+              }
+            });
+    queuePolicies = policies;
+  }
+
+  private DedupPolicy policy(Message message) {
+    String queue = message.getMessageProperties().getConsumerQueue();
+    return queuePolicies.getOrDefault(queue, configuredPolicies.getOrDefault(queue, defaultPolicy));
   }
 
   private MessageAdapter<Message> adapter(Channel channel, Message message) {
     String queue = message.getMessageProperties().getConsumerQueue();
     AcknowledgeMode mode = acknowledgeModes.getOrDefault(queue, AcknowledgeMode.AUTO);
-    return new SpringMessageAdaptor(channel, mode == AcknowledgeMode.MANUAL, rejectAndRequeue);
+    return new SpringMessageAdaptor(
+        channel,
+        mode == AcknowledgeMode.MANUAL,
+        rejectAndRequeue,
+        store.getBeetleAmqpConfiguration());
   }
 
   @Override
   public Object invoke(MethodInvocation invocation) throws Throwable {
     Channel channel = (Channel) invocation.getArguments()[0];
     Object data = invocation.getArguments()[1];
-    boolean multiple = data instanceof List;
-    @SuppressWarnings("unchecked")
-    List<Message> messages =
-        multiple
-            ? (List<Message>) data
-            : new ArrayList<>(Collections.singletonList((Message) data));
+    if (data instanceof List) {
+      @SuppressWarnings("unchecked")
+      List<Message> messages = (List<Message>) data;
+      invokeBatch(invocation, channel, messages);
+      return null;
+    }
+    Message msg = (Message) data;
     MessageListener<Message> listener =
-        msg -> {
-          invocation.getArguments()[1] = multiple ? Collections.singletonList(msg) : msg;
+        m -> {
+          invocation.getArguments()[1] = m;
           invocation.proceed();
         };
-    messages.forEach(msg -> store.handle(msg, adapter(channel, msg), listener));
+    switch (policy(msg)) {
+      case NONE:
+        listener.onMessage(msg);
+        break;
+      case EXPIRY_ONLY:
+        // unlike the store backed policies failures are up to the listener container, as for NONE
+        if (!store.dropIfExpired(msg, adapter(channel, msg), listener)) {
+          listener.onMessage(msg);
+        }
+        break;
+      case LOCAL_ONLY:
+        localStore.handle(msg, adapter(channel, msg), listener);
+        break;
+      default:
+        store.handle(msg, adapter(channel, msg), listener);
+    }
     return null;
   }
+
+  /**
+   * deduplicates the messages of a batch listener as a whole and invokes the listener once per
+   * policy with the messages which are due for handling.
+   */
+  private void invokeBatch(MethodInvocation invocation, Channel channel, List<Message> messages)
+      throws Throwable {
+    BatchMessageListener<Message> listener =
+        msgs -> {
+          invocation.getArguments()[1] = msgs;
+          invocation.proceed();
+        };
+    Map<DedupPolicy, List<Message>> byPolicy = new EnumMap<>(DedupPolicy.class);
+    messages.forEach(msg -> byPolicy.computeIfAbsent(policy(msg), p -> new ArrayList<>()).add(msg));
+    for (Map.Entry<DedupPolicy, List<Message>> batch : byPolicy.entrySet()) {
+      List<Message> msgs = batch.getValue();
+      MessageAdapter<Message> adapter = adapter(channel, msgs.get(0));
+      switch (batch.getKey()) {
+        case NONE:
+          listener.onMessages(msgs);
+          break;
+        case EXPIRY_ONLY:
+          msgs.removeIf(msg -> store.dropIfExpired(msg, adapter, listener));
+          if (!msgs.isEmpty()) {
+            listener.onMessages(msgs);
+          }
+          break;
+        case LOCAL_ONLY:
+          localStore.handleBatch(msgs, adapter, listener);
+          break;
+        default:
+          store.handleBatch(msgs, adapter, listener);
+      }
+    }
+  }
 }
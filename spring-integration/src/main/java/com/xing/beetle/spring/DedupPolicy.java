@@ -0,0 +1,62 @@
+package com.xing.beetle.spring;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * DedupPolicy defines how the BeetleListenerInterceptor deduplicates the messages of a listener.
+ */
+public enum DedupPolicy {
+  /** full deduplication protocol against the shared deduplication store (e.g. Redis) */
+  FULL,
+  /** drop expired messages only, the deduplication store is never consulted */
+  EXPIRY_ONLY,
+  /** full deduplication protocol against a store local to this process */
+  LOCAL_ONLY,
+  /** pass all messages to the listener as they are */
+  NONE;
+
+  /**
+   * Parses a policy name like "expiry_only" or "expiry-only" (case insensitive).
+   *
+   * @param name policy name
+   * @param defaultPolicy returned if the name is null or empty
+   * @return the policy
+   * @throws IllegalArgumentException if the name is no policy
+   */
+  static DedupPolicy parse(String name, DedupPolicy defaultPolicy) {
+    if (name == null || name.trim().isEmpty()) {
+      return defaultPolicy;
+    }
+    try {
+      return valueOf(name.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException(
+          String.format(
+              "Unknown dedup policy '%s', expected one of %s", name, Arrays.toString(values())));
+    }
+  }
+
+  /**
+   * Parses a comma separated list of "listener:policy" pairs.
+   *
+   * @param mapping e.g. "orders:full,clicks:none"
+   * @return policies by listener id or queue name
+   */
+  static Map<String, DedupPolicy> parseMapping(String mapping) {
+    Map<String, DedupPolicy> policies = new HashMap<>();
+    if (mapping == null || mapping.trim().isEmpty()) {
+      return policies;
+    }
+    for (String pair : mapping.split(",")) {
+      String[] parts = pair.split(":", 2);
+      if (parts.length != 2) {
+        throw new IllegalArgumentException("Invalid listener dedup policy: " + pair);
+      }
+      policies.put(parts[0].trim(), parse(parts[1], FULL));
+    }
+    return policies;
+  }
+}
@@ -0,0 +1,184 @@
+package com.xing.beetle.spring;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.xing.beetle.BeetleHeader;
+import com.xing.beetle.amqp.BeetleAmqpConfiguration;
+import com.xing.beetle.amqp.BeetleChannel;
+import com.xing.beetle.dedup.spi.Deduplicator;
+import com.xing.beetle.dedup.spi.InMemoryKeyValueStore;
+import com.xing.beetle.dedup.spi.KeyValueStoreBasedDeduplicator;
+import org.aopalliance.intercept.MethodInvocation;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.AcknowledgeMode;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.connection.ChannelProxy;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistry;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class BeetleListenerInterceptorTest {
+
+  @Mock private RabbitListenerEndpointRegistry registry;
+  @Mock private Channel channel;
+  @Mock private MethodInvocation invocation;
+
+  private BeetleAmqpConfiguration configuration;
+  private Deduplicator store;
+  private Deduplicator localStore;
+
+  @BeforeEach
+  void setUp() {
+    configuration = spy(new BeetleAmqpConfiguration());
+    store = spy(new KeyValueStoreBasedDeduplicator(new InMemoryKeyValueStore(60), configuration));
+    localStore =
+        spy(new KeyValueStoreBasedDeduplicator(new InMemoryKeyValueStore(60), configuration));
+    when(registry.getListenerContainers()).thenReturn(Collections.emptyList());
+  }
+
+  private BeetleListenerInterceptor interceptor(DedupPolicy policy) {
+    BeetleListenerInterceptor interceptor =
+        new BeetleListenerInterceptor(
+            store, localStore, registry, false, DedupPolicy.FULL, Map.of("q", policy));
+    interceptor.onApplicationStarted(null);
+    return interceptor;
+  }
+
+  private static Message message(String id, long expiresAt) {
+    MessageProperties properties = new MessageProperties();
+    properties.setMessageId(id);
+    properties.setConsumerQueue("q");
+    properties.setHeader("expires_at", expiresAt);
+    return new Message(new byte[0], properties);
+  }
+
+  private Object[] invoke(BeetleListenerInterceptor interceptor, Object data) throws Throwable {
+    Object[] arguments = {channel, data};
+    when(invocation.getArguments()).thenReturn(arguments);
+    interceptor.invoke(invocation);
+    return arguments;
+  }
+
+  private static long inOneMinute() {
+    return Instant.now().getEpochSecond() + 60;
+  }
+
+  @Test
+  void expiryOnlyPropagatesHandlerExceptions() throws Throwable {
+    when(invocation.proceed()).thenThrow(new IllegalStateException("handler failed"));
+    BeetleListenerInterceptor interceptor = interceptor(DedupPolicy.EXPIRY_ONLY);
+
+    assertThrows(
+        IllegalStateException.class, () -> invoke(interceptor, message("m1", inOneMinute())));
+    verify(store, never()).tryAcquireMutex(anyString(), anyInt());
+  }
+
+  @Test
+  void expiryOnlyDropsExpiredMessages() throws Throwable {
+    BeetleListenerInterceptor interceptor = interceptor(DedupPolicy.EXPIRY_ONLY);
+
+    invoke(interceptor, message("m1", 1));
+    verify(invocation, never()).proceed();
+
+    Message valid = message("m2", inOneMinute());
+    Object[] arguments = invoke(interceptor, new ArrayList<>(List.of(message("m3", 1), valid)));
+    verify(invocation).proceed();
+    assertEquals(List.of(valid), arguments[1]);
+  }
+
+  @Test
+  void policiesSelectTheDeduplicator() throws Throwable {
+    invoke(interceptor(DedupPolicy.LOCAL_ONLY), message("m1", inOneMinute()));
+    verify(localStore).handle(any(), any(), any());
+    verify(store, never()).handle(any(), any(), any());
+
+    invoke(interceptor(DedupPolicy.FULL), message("m2", inOneMinute()));
+    verify(store).handle(any(), any(), any());
+
+    invoke(interceptor(DedupPolicy.NONE), message("m3", inOneMinute()));
+    verify(store).handle(any(), any(), any());
+    verify(localStore).handle(any(), any(), any());
+  }
+
+  @Test
+  void delayedRetryIsParkedOnTheBrokerTheMessageCameFrom() throws Throwable {
+    doReturn(3L).when(configuration).getExceptionLimit();
+    doReturn(3L).when(configuration).getMaxHandlerExecutionAttempts();
+    configuration.setDelayQueueTiers("1000");
+    SimpleMessageListenerContainer container = mock(SimpleMessageListenerContainer.class);
+    when(container.getListenerId()).thenReturn("q");
+    when(container.getQueueNames()).thenReturn(new String[] {"q"});
+    when(container.getAcknowledgeMode()).thenReturn(AcknowledgeMode.MANUAL);
+    when(registry.getListenerContainers()).thenReturn(List.of(container));
+    BeetleChannel beetleChannel = mock(BeetleChannel.class);
+    ChannelProxy proxy = mock(ChannelProxy.class);
+    when(proxy.getTargetChannel()).thenReturn(beetleChannel);
+    when(invocation.proceed()).thenThrow(new IllegalStateException("handler failed"));
+    Message message = message("m1", inOneMinute());
+    message.getMessageProperties().setDeliveryTag(7);
+    message.getMessageProperties().setHeader(BeetleHeader.PUBLISH_REDUNDANCY, 2);
+    when(invocation.getArguments()).thenReturn(new Object[] {proxy, message});
+
+    assertThrows(
+        IllegalStateException.class, () -> interceptor(DedupPolicy.FULL).invoke(invocation));
+    verify(beetleChannel).basicPublishToOrigin(eq(7L), eq(""), eq("q_delay_1000"), any(), any());
+    verify(proxy, never())
+        .basicPublish(anyString(), anyString(), any(AMQP.BasicProperties.class), any());
+    verify(proxy).basicAck(7, false);
+  }
+
+  @Test
+  void delayedRetryShorterThanTheShortestDelayQueueIsRequeued() throws Throwable {
+    doReturn(3L).when(configuration).getExceptionLimit();
+    doReturn(3L).when(configuration).getMaxHandlerExecutionAttempts();
+    configuration.setDelayQueueTiers("60000");
+    SimpleMessageListenerContainer container = mock(SimpleMessageListenerContainer.class);
+    when(container.getListenerId()).thenReturn("q");
+    when(container.getQueueNames()).thenReturn(new String[] {"q"});
+    when(container.getAcknowledgeMode()).thenReturn(AcknowledgeMode.MANUAL);
+    when(registry.getListenerContainers()).thenReturn(List.of(container));
+    BeetleChannel beetleChannel = mock(BeetleChannel.class);
+    ChannelProxy proxy = mock(ChannelProxy.class);
+    when(proxy.getTargetChannel()).thenReturn(beetleChannel);
+    when(invocation.proceed()).thenThrow(new IllegalStateException("handler failed"));
+    Message message = message("m1", inOneMinute());
+    message.getMessageProperties().setDeliveryTag(7);
+    when(invocation.getArguments()).thenReturn(new Object[] {proxy, message});
+
+    assertThrows(
+        IllegalStateException.class, () -> interceptor(DedupPolicy.FULL).invoke(invocation));
+    verify(beetleChannel, never())
+        .basicPublishToOrigin(anyLong(), anyString(), anyString(), any(), any());
+    verify(proxy, never())
+        .basicPublish(anyString(), anyString(), any(AMQP.BasicProperties.class), any());
+    verify(proxy).basicReject(7, false);
+  }
+}
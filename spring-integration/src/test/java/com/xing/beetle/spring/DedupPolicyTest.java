@@ -0,0 +1,39 @@
+package com.xing.beetle.spring;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class DedupPolicyTest {
+
+  @Test
+  void parsesPolicyNames() {
+    assertEquals(DedupPolicy.EXPIRY_ONLY, DedupPolicy.parse("expiry-only", DedupPolicy.FULL));
+    assertEquals(DedupPolicy.LOCAL_ONLY, DedupPolicy.parse(" Local_Only ", DedupPolicy.FULL));
+    assertEquals(DedupPolicy.NONE, DedupPolicy.parse("", DedupPolicy.NONE));
+    assertEquals(DedupPolicy.FULL, DedupPolicy.parse(null, DedupPolicy.FULL));
+  }
+
+  @Test
+  void rejectsUnknownPolicyNames() {
+    IllegalArgumentException e =
+        assertThrows(
+            IllegalArgumentException.class, () -> DedupPolicy.parse("expiry", DedupPolicy.FULL));
+    assertTrue(e.getMessage().contains("'expiry'"), e.getMessage());
+    assertTrue(e.getMessage().contains("EXPIRY_ONLY"), e.getMessage());
+    assertThrows(IllegalArgumentException.class, () -> DedupPolicy.parseMapping("orders:maybe"));
+    assertThrows(IllegalArgumentException.class, () -> DedupPolicy.parseMapping("orders"));
+  }
+
+  @Test
+  void parsesListenerMappings() {
+    assertEquals(
+        Map.of("orders", DedupPolicy.FULL, "clicks", DedupPolicy.NONE),
+        DedupPolicy.parseMapping("orders:full, clicks:none"));
+    assertEquals(Map.of(), DedupPolicy.parseMapping(null));
+  }
+}